@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.DMatch;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.features2d.BFMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares every reference descriptor against every frame descriptor.
+ */
+public class BruteForceReferenceMatcher implements ReferenceMatcher {
+    private final BFMatcher matcher;
+    private final Mat refDescriptors;
+    private final Mat emptyMask = new Mat();
+
+    /**
+     * @param refDescriptors: the reference descriptors
+     * @param normType: BFMatcher.BRUTEFORCE for float descriptors or BFMatcher.BRUTEFORCE_HAMMING for binary ones
+     */
+    public BruteForceReferenceMatcher(Mat refDescriptors, int normType) {
+        this.matcher = BFMatcher.create(normType, false);
+        this.refDescriptors = refDescriptors;
+    }
+
+    @Override
+    public List<DMatch> knnMatch(Mat frameDescriptors, float ratio) {
+        List<MatOfDMatch> matches = new ArrayList<>();
+        matcher.knnMatch(refDescriptors, frameDescriptors, matches, 2, emptyMask, false);
+
+        ArrayList<DMatch> goodMatches = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            DMatch[] dMatches = matches.get(i).toArray();
+            if (dMatches.length >= 2) {
+                DMatch m = dMatches[0];
+                DMatch n = dMatches[1];
+                if (m.distance <= ratio * n.distance) {
+                    goodMatches.add(m);
+                }
+            }
+            matches.get(i).release();
+        }
+        return goodMatches;
+    }
+
+    @Override
+    public List<DMatch> match(Mat frameDescriptors) {
+        MatOfDMatch matches = new MatOfDMatch();
+        matcher.match(refDescriptors, frameDescriptors, matches);
+        List<DMatch> matchesList = matches.toList();
+        matches.release();
+        return matchesList;
+    }
+
+    @Override
+    public Backend getBackend() {
+        return Backend.BRUTE_FORCE;
+    }
+
+    @Override
+    public void release() {
+        emptyMask.release();
+    }
+}
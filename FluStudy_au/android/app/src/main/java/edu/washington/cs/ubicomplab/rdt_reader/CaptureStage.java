@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+/**
+ * The stages of capturing and reading an RDT whose latency is recorded
+ */
+public enum CaptureStage {
+    CONVERSION,
+    EXPOSURE,
+    SHARPNESS,
+    FEATURE_DETECTION,
+    MATCHING,
+    HOMOGRAPHY,
+    FIDUCIAL,
+    LINE_READ
+}
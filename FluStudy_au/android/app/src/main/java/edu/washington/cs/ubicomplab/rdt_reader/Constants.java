@@ -22,6 +22,7 @@ public final class Constants {
     public static double OVER_EXP_THRESHOLD = 255;
     public static double UNDER_EXP_THRESHOLD = 120;
     public static double OVER_EXP_WHITE_COUNT = 100;
+    public static int EXPOSURE_SAMPLE_STRIDE = 4;
 
     public static String OK = "<font color='#00EE00'>✔</font>";
     public static String NOT_OK = "<font color='#EE0000'>✘</font>";
@@ -39,7 +40,7 @@ public final class Constants {
     public static double VIEW_FINDER_SCALE_H = 0.60;
     public static double VIEW_FINDER_SCALE_W = 0.15;
 
-    //Set for QuickVue
+    //Set for QuickVue; these are the defaults for every RDTProfile
     public static int RESULT_WINDOW_X = 550;
     public static int RESULT_WINDOW_Y = 10;
     public static int RESULT_WINDOW_WIDTH = 200;
@@ -84,8 +85,25 @@ public final class Constants {
     public static int ANGLE_THRESHOLD = 10;
     public static int FIDUCIAL_DISTANCE = 610;
     public static int FIDUCIAL_COUNT = 2;
+    public static double FIDUCIAL_KMEANS_SCALE = 0.25;
 
     public static double ENHANCING_THRESHOLD = 4.50;
     public static double REF_IMAGE_SCALE = 1.0;
     public static double FRAME_IMAGE_SCALE = 0.5;
+
+    public static ReferenceMatcher.Backend MATCHER_BACKEND = ReferenceMatcher.Backend.BRUTE_FORCE;
+
+    public static String DEFAULT_RDT_PROFILE = RDTProfile.QUICKVUE;
+    public static int REFERENCE_CACHE_SIZE = 2;
+
+    public static boolean PARALLEL_QUALITY_CHECKS = true;
+    public static boolean EARLY_EXIT_GATES = true;
+    public static int PIPELINE_DEPTH = 3;
+    public static FrameScheduler.DropPolicy FRAME_DROP_POLICY = FrameScheduler.DropPolicy.LATEST_WINS;
+    public static QualityGate[] QUALITY_GATE_ORDER = {QualityGate.EXPOSURE, QualityGate.SHARPNESS};
+    public static double EXPOSURE_GATE_BUDGET_MS = 5;
+    public static double SHARPNESS_GATE_BUDGET_MS = 15;
+
+    public static int TRACKING_MAX_FRAMES = 15;
+    public static double TRACKING_MIN_POINT_RATIO = 0.5;
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.washington.cs.ubicomplab.rdt_reader.Constants.*;
+
+/**
+ * Follows the RDT's matched keypoints from frame to frame with pyramidal
+ * Lucas-Kanade optical flow so that the reference-to-frame homography can be
+ * re-estimated without running SIFT detection and matching on every frame.
+ * The tracker is seeded from a successful SIFT detection and drops back to
+ * the untracked state whenever it loses confidence.
+ */
+public class FeatureTracker {
+    private final Size winSize = new Size(21, 21);
+    private final TermCriteria criteria = new TermCriteria(TermCriteria.COUNT+TermCriteria.EPS, 20, 0.03);
+
+    private Mat prevFrame = new Mat();
+    private List<Point> refPoints = new ArrayList<>();
+    private MatOfPoint2f prevPoints = new MatOfPoint2f();
+    private MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private MatOfByte status = new MatOfByte();
+    private MatOfFloat err = new MatOfFloat();
+    private int seedCount = 0;
+    private int trackedFrames = 0;
+    private boolean tracking = false;
+
+    /**
+     * @return whether the tracker holds points it can follow into the next frame
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Starts tracking from a SIFT detection
+     * @param frame: the grey frame the detection was computed on
+     * @param objMat: the matched keypoints in the reference image
+     * @param sceneMat: the matched keypoints in the frame
+     * @param inlierMask: the RANSAC inlier mask returned with the homography
+     */
+    public void seed(Mat frame, MatOfPoint2f objMat, MatOfPoint2f sceneMat, Mat inlierMask) {
+        seedCount = keepInliers(frame, objMat, sceneMat, inlierMask);
+        trackedFrames = 0;
+        tracking = seedCount > GOOD_MATCH_COUNT;
+        if (!tracking)
+            reset();
+    }
+
+    /**
+     * Stores the RANSAC inliers and the frame they were found in as the starting point for the next frame
+     * @return the number of inliers kept
+     */
+    private int keepInliers(Mat frame, MatOfPoint2f objMat, MatOfPoint2f sceneMat, Mat inlierMask) {
+        Point[] obj = objMat.toArray();
+        Point[] scene = sceneMat.toArray();
+        byte[] inliers = new byte[(int) inlierMask.total()];
+        inlierMask.get(0, 0, inliers);
+
+        refPoints.clear();
+        List<Point> framePoints = new ArrayList<>();
+        for (int i = 0; i < inliers.length; i++) {
+            if (inliers[i] != 0) {
+                refPoints.add(obj[i]);
+                framePoints.add(scene[i]);
+            }
+        }
+
+        frame.copyTo(prevFrame);
+        prevPoints.fromList(framePoints);
+        return framePoints.size();
+    }
+
+    /**
+     * Follows the tracked points into the next frame and re-estimates the homography
+     * @param frame: the next grey frame, with the same geometry as the seeding frame
+     * @param ransac: the ransac reprojection error threshold
+     * @return the reference-to-frame homography, or null if tracking was lost
+     */
+    public Mat track(Mat frame, int ransac) {
+        if (!tracking || !frame.size().equals(prevFrame.size())) {
+            reset();
+            return null;
+        }
+
+        Video.calcOpticalFlowPyrLK(prevFrame, frame, prevPoints, nextPoints, status, err,
+                winSize, 2, criteria, 0, 1e-4);
+
+        // Keep only the points that were found in the new frame
+        byte[] found = status.toArray();
+        Point[] next = nextPoints.toArray();
+        List<Point> obj = new ArrayList<>();
+        List<Point> scene = new ArrayList<>();
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] != 0) {
+                obj.add(refPoints.get(i));
+                scene.add(next[i]);
+            }
+        }
+
+        // Give up if too many points were lost since the last detection
+        if (scene.size() <= GOOD_MATCH_COUNT || scene.size() < seedCount*TRACKING_MIN_POINT_RATIO) {
+            reset();
+            return null;
+        }
+
+        MatOfPoint2f objMat = new MatOfPoint2f();
+        MatOfPoint2f sceneMat = new MatOfPoint2f();
+        objMat.fromList(obj);
+        sceneMat.fromList(scene);
+        Mat inlierMask = new Mat();
+        Mat H = Calib3d.findHomography(objMat, sceneMat, Calib3d.RANSAC, ransac, inlierMask, 2000, 0.995);
+
+        if (H.cols() < 3 || H.rows() < 3) {
+            H.release();
+            H = null;
+            reset();
+        } else {
+            // Carry the RANSAC inliers forward, falling back to detection if too few
+            // agree with the homography or the track is old enough to have drifted
+            int inlierCount = keepInliers(frame, objMat, sceneMat, inlierMask);
+            trackedFrames++;
+            if (inlierCount <= GOOD_MATCH_COUNT) {
+                H.release();
+                H = null;
+                reset();
+            } else if (trackedFrames >= TRACKING_MAX_FRAMES) {
+                reset();
+            }
+        }
+
+        objMat.release();
+        sceneMat.release();
+        inlierMask.release();
+        return H;
+    }
+
+    /**
+     * Drops the tracked points so the next frame goes through full detection
+     */
+    public void reset() {
+        tracking = false;
+        seedCount = 0;
+        trackedFrames = 0;
+        refPoints.clear();
+    }
+
+    /**
+     * Releases the native resources held by the tracker
+     */
+    public void release() {
+        reset();
+        prevFrame.release();
+        prevPoints.release();
+        nextPoints.release();
+        status.release();
+        err.release();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.DMatch;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.features2d.FlannBasedMatcher;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches each frame's descriptors against a FLANN index built once over the
+ * reference descriptors: a KD-tree forest for float descriptors (SIFT) or a
+ * locality sensitive hash for binary descriptors (BRISK/ORB). Each frame only
+ * pays for the lookup, so the frame is the query side and the ratio test compares
+ * a frame descriptor's two nearest reference descriptors. The indices of the
+ * results are swapped so they follow the {@link ReferenceMatcher} contract.
+ */
+public class FlannReferenceMatcher implements ReferenceMatcher {
+    // OpenCV's Java bindings cannot set FLANN index parameters directly, so the
+    // LSH configuration is handed to the matcher through FileStorage. The type
+    // codes of the algorithm and boolean parameters differ between OpenCV
+    // versions, so they are taken from the matcher's own serialized defaults.
+    private static final String LSH_PARAMS = "%%YAML:1.0\n" +
+            "---\n" +
+            "format: 3\n" +
+            "indexParams:\n" +
+            "   - { name: algorithm, type: %1$d, value: 6 }\n" +
+            "   - { name: table_number, type: 4, value: 12 }\n" +
+            "   - { name: key_size, type: 4, value: 20 }\n" +
+            "   - { name: multi_probe_level, type: 4, value: 2 }\n" +
+            "searchParams:\n" +
+            "   - { name: checks, type: 4, value: 32 }\n" +
+            "   - { name: eps, type: 5, value: 0. }\n" +
+            "   - { name: sorted, type: %2$d, value: 1 }\n";
+    private static final Pattern PARAM_TYPE = Pattern.compile("name: *(\\w+)\\s+type: *(\\d+)");
+    private static final Pattern LSH_ALGORITHM = Pattern.compile("name: *algorithm\\s+type: *\\d+\\s+value: *6\\b");
+
+    private final FlannBasedMatcher matcher;
+
+    /**
+     * @param refDescriptors: the reference descriptors
+     * @param binary: whether the descriptors are binary and need an LSH index
+     * @throws IllegalStateException if the LSH index cannot be configured; the default
+     * KD-tree index cannot hold binary descriptors
+     */
+    public FlannReferenceMatcher(Mat refDescriptors, boolean binary) {
+        matcher = FlannBasedMatcher.create();
+        if (binary) {
+            configureLsh(matcher);
+        }
+        matcher.add(Collections.singletonList(refDescriptors));
+        matcher.train();
+    }
+
+    @Override
+    public List<DMatch> knnMatch(Mat frameDescriptors, float ratio) {
+        ArrayList<DMatch> goodMatches = new ArrayList<>();
+        if (frameDescriptors.empty())
+            return goodMatches;
+
+        List<MatOfDMatch> matches = new ArrayList<>();
+        matcher.knnMatch(frameDescriptors, matches, 2);
+
+        for (int i = 0; i < matches.size(); i++) {
+            DMatch[] dMatches = matches.get(i).toArray();
+            if (dMatches.length >= 2) {
+                DMatch m = dMatches[0];
+                DMatch n = dMatches[1];
+                if (m.distance <= ratio * n.distance) {
+                    goodMatches.add(fromReference(m));
+                }
+            }
+            matches.get(i).release();
+        }
+        return goodMatches;
+    }
+
+    @Override
+    public List<DMatch> match(Mat frameDescriptors) {
+        List<DMatch> matchesList = new ArrayList<>();
+        if (frameDescriptors.empty())
+            return matchesList;
+
+        MatOfDMatch matches = new MatOfDMatch();
+        matcher.match(frameDescriptors, matches);
+        for (DMatch m : matches.toArray())
+            matchesList.add(fromReference(m));
+        matches.release();
+        return matchesList;
+    }
+
+    /**
+     * Swaps a match of a frame descriptor against the index so the reference is the query
+     * @param m: the match, with queryIdx in the frame and trainIdx in the reference
+     * @return the match with queryIdx in the reference and trainIdx in the frame
+     */
+    private static DMatch fromReference(DMatch m) {
+        return new DMatch(m.trainIdx, m.queryIdx, m.imgIdx, m.distance);
+    }
+
+    @Override
+    public Backend getBackend() {
+        return Backend.FLANN;
+    }
+
+    @Override
+    public void release() {
+        matcher.clear();
+    }
+
+    private static void configureLsh(FlannBasedMatcher matcher) {
+        File params = null;
+        try {
+            params = File.createTempFile("flann_lsh", ".yml");
+            matcher.write(params.getPath());
+            Matcher types = PARAM_TYPE.matcher(readFile(params));
+            int algorithmType = -1;
+            int boolType = -1;
+            while (types.find()) {
+                if (types.group(1).equals("algorithm"))
+                    algorithmType = Integer.parseInt(types.group(2));
+                else if (types.group(1).equals("sorted"))
+                    boolType = Integer.parseInt(types.group(2));
+            }
+            if (algorithmType < 0 || boolType < 0)
+                throw new IllegalStateException("Unrecognized FLANN parameter format");
+
+            FileWriter writer = new FileWriter(params);
+            writer.write(String.format(Locale.US, LSH_PARAMS, algorithmType, boolType));
+            writer.close();
+            matcher.read(params.getPath());
+
+            // read() ignores parameters it cannot parse, so check the index type took effect
+            matcher.write(params.getPath());
+            if (!LSH_ALGORITHM.matcher(readFile(params)).find())
+                throw new IllegalStateException("FLANN matcher did not accept the LSH parameters");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to configure LSH index", e);
+        } finally {
+            if (params != null) {
+                params.delete();
+            }
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        Scanner scanner = new Scanner(file, "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+        } finally {
+            scanner.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static edu.washington.cs.ubicomplab.rdt_reader.Constants.*;
+import static org.opencv.core.CvType.CV_8U;
+
+/**
+ * The per-frame regions of interest and the SIFT feature mask, which only
+ * depend on the size of the camera frame. They are computed once and reused
+ * until the camera output size changes.
+ */
+public class FrameGeometry {
+    public final Size frameSize;
+    public final Rect viewfinderRect;
+    public final Size scaledSize;
+    public final Rect scaledViewfinderRect;
+    public final Rect siftRoi;
+    public final Mat siftMask;
+
+    /**
+     * Computes the geometry for frames of the given size
+     * @param frameSize: the size of the full resolution camera frame
+     */
+    public FrameGeometry(Size frameSize) {
+        this.frameSize = frameSize.clone();
+
+        // Viewfinder window in the full resolution frame
+        Point p1 = new Point(frameSize.width*(1-VIEW_FINDER_SCALE_H)/2,
+                frameSize.height*(1-VIEW_FINDER_SCALE_W)/2);
+        Point p2 = new Point(frameSize.width-p1.x, frameSize.height-p1.y);
+        viewfinderRect = new Rect(p1, p2);
+
+        // Size of the downsampled frame used for SIFT (rounded the same way as Imgproc.resize)
+        scaledSize = new Size(Math.round(frameSize.width*FRAME_IMAGE_SCALE),
+                Math.round(frameSize.height*FRAME_IMAGE_SCALE));
+
+        // Viewfinder window in the downsampled frame, where sharpness is measured
+        Point s1 = new Point(Math.round(viewfinderRect.x*FRAME_IMAGE_SCALE),
+                Math.round(viewfinderRect.y*FRAME_IMAGE_SCALE));
+        Point s2 = new Point(Math.min(Math.round(viewfinderRect.br().x*FRAME_IMAGE_SCALE), scaledSize.width),
+                Math.min(Math.round(viewfinderRect.br().y*FRAME_IMAGE_SCALE), scaledSize.height));
+        scaledViewfinderRect = new Rect(s1, s2);
+
+        // Region of the downsampled frame where features are generated
+        // TODO: can we make this tighter regardless of OpenCV's bug?
+        Point tl = new Point(scaledSize.height*(1-VIEW_FINDER_SCALE_W/CROP_RATIO)/2, 0);
+        Point br = new Point(scaledSize.width-tl.x, scaledSize.height);
+        siftRoi = new Rect(tl, br);
+
+        siftMask = new Mat(siftRoi.width, siftRoi.height, CV_8U, new Scalar(0));
+        Point m1 = new Point(0, siftRoi.height*(1-VIEW_FINDER_SCALE_W/CROP_RATIO)/2);
+        Point m2 = new Point(siftRoi.width-m1.x, siftRoi.height-m1.y);
+        Imgproc.rectangle(siftMask, m1, m2, new Scalar(255), -1);
+    }
+
+    /**
+     * @param size: the size of the incoming frame
+     * @return whether this geometry was computed for frames of that size
+     */
+    public boolean matches(Size size) {
+        return frameSize.equals(size);
+    }
+
+    /**
+     * Releases the native resources held by the geometry
+     */
+    public void release() {
+        siftMask.release();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Hands camera frames to a single persistent processing thread through a
+ * one-frame slot. A frame offered while another is waiting in the slot is
+ * resolved by the drop policy, so the producer never blocks and the consumer
+ * never works through a backlog of stale frames. Every frame is either
+ * processed or dropped exactly once, so the handler can release it.
+ * @param <T>: the frame type
+ */
+public class FrameScheduler<T> {
+    private static final String TAG = "FrameScheduler";
+
+    public enum DropPolicy {
+        // Replace the waiting frame with the new one, so the freshest frame is processed next
+        LATEST_WINS,
+        // Keep the waiting frame and drop the new one
+        OLDEST_WINS
+    }
+
+    public interface FrameHandler<T> {
+        /**
+         * Processes a frame on the scheduler's thread
+         * @param frame: the frame taken from the slot
+         */
+        void onFrame(T frame);
+
+        /**
+         * Releases a frame that will not be processed
+         * @param frame: the dropped frame
+         */
+        void onDrop(T frame);
+    }
+
+    public static class FrameStats {
+        public long offered;
+        public long processed;
+        public long dropped;
+
+        @Override
+        public String toString() {
+            return String.format("offered: %d, processed: %d, dropped: %d", offered, processed, dropped);
+        }
+    }
+
+    private final String name;
+    private final FrameHandler<T> handler;
+    private volatile DropPolicy dropPolicy;
+    private final Object lock = new Object();
+    private final FrameStats stats = new FrameStats();
+    private Thread thread;
+    // A stopped thread that may still be finishing its last frame
+    private Thread stoppedThread;
+    private T pending;
+    private boolean paused;
+    private boolean running;
+
+    /**
+     * @param name: the name of the processing thread
+     * @param dropPolicy: which frame to drop when the slot is full
+     * @param handler: processes and releases frames
+     */
+    public FrameScheduler(String name, DropPolicy dropPolicy, FrameHandler<T> handler) {
+        this.name = name;
+        this.dropPolicy = dropPolicy;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts the processing thread if it is not already running, accepting frames again if
+     * the previous run was paused. The new thread waits for a thread stopped by
+     * {@link #stop()} to finish its last frame before processing, so frames are never
+     * handled concurrently; the caller does not wait.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running)
+                return;
+            running = true;
+            paused = false;
+            final Thread previous = stoppedThread;
+            stoppedThread = null;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                    awaitExit(previous);
+                    processFrames();
+                }
+            }, name);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the processing thread and drops the waiting frame. Does not wait for the frame
+     * in progress, so it is safe to call from the UI thread; that frame is finished and
+     * released by the handler on the old thread, which then exits without taking another.
+     */
+    public void stop() {
+        T dropped;
+        synchronized (lock) {
+            if (!running)
+                return;
+            running = false;
+            dropped = pending;
+            pending = null;
+            stoppedThread = thread;
+            thread = null;
+            lock.notifyAll();
+        }
+        if (dropped != null)
+            drop(dropped);
+    }
+
+    /**
+     * Offers a frame for processing. Never blocks; the return value is the back-pressure
+     * signal to the producer.
+     * @param frame: the frame; ownership passes to the scheduler
+     * @return true if the frame was queued, false if it was dropped
+     */
+    public boolean offer(T frame) {
+        T dropped = null;
+        boolean queued;
+        synchronized (lock) {
+            stats.offered++;
+            if (!running || paused) {
+                dropped = frame;
+                queued = false;
+            } else if (pending == null) {
+                pending = frame;
+                queued = true;
+            } else if (dropPolicy == DropPolicy.LATEST_WINS) {
+                dropped = pending;
+                pending = frame;
+                queued = true;
+            } else {
+                dropped = frame;
+                queued = false;
+            }
+            if (queued)
+                lock.notifyAll();
+        }
+        if (dropped != null)
+            drop(dropped);
+        return queued;
+    }
+
+    /**
+     * Drops every frame offered until {@link #resume()} is called. The frame in progress
+     * is finished and the waiting frame is dropped.
+     */
+    public void pause() {
+        T dropped;
+        synchronized (lock) {
+            paused = true;
+            dropped = pending;
+            pending = null;
+        }
+        if (dropped != null)
+            drop(dropped);
+    }
+
+    /**
+     * Accepts frames again after {@link #pause()}
+     */
+    public void resume() {
+        synchronized (lock) {
+            paused = false;
+        }
+    }
+
+    /**
+     * @param dropPolicy: which frame to drop when the slot is full
+     */
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * @return a copy of the frame counters
+     */
+    public FrameStats getStats() {
+        synchronized (lock) {
+            FrameStats copy = new FrameStats();
+            copy.offered = stats.offered;
+            copy.processed = stats.processed;
+            copy.dropped = stats.dropped;
+            return copy;
+        }
+    }
+
+    private void drop(T frame) {
+        synchronized (lock) {
+            stats.dropped++;
+        }
+        handler.onDrop(frame);
+    }
+
+    /**
+     * Waits for a stopped processing thread to exit, even if interrupted
+     * @param previous: the stopped thread, or null
+     */
+    private static void awaitExit(Thread previous) {
+        if (previous == null)
+            return;
+        boolean interrupted = false;
+        while (previous.isAlive()) {
+            try {
+                previous.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void processFrames() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            T frame;
+            synchronized (lock) {
+                while (thread == self && pending == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Only stop() ends the thread
+                    }
+                }
+                if (thread != self)
+                    return;
+                frame = pending;
+                pending = null;
+            }
+
+            try {
+                handler.onFrame(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Frame processing failed", e);
+            } finally {
+                synchronized (lock) {
+                    stats.processed++;
+                }
+            }
+        }
+    }
+}
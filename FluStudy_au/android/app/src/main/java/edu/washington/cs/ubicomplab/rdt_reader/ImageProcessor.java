@@ -12,6 +12,8 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import org.opencv.android.BaseLoaderCallback;
@@ -26,8 +28,6 @@ import org.opencv.core.KeyPoint;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfDMatch;
 import org.opencv.core.MatOfDouble;
-import org.opencv.core.MatOfFloat;
-import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfKeyPoint;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
@@ -36,7 +36,6 @@ import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
 import org.opencv.core.Size;
 import org.opencv.core.TermCriteria;
-import org.opencv.features2d.BFMatcher;
 import org.opencv.features2d.BRISK;
 import org.opencv.features2d.Features2d;
 import org.opencv.imgproc.CLAHE;
@@ -45,25 +44,37 @@ import org.opencv.core.Scalar;
 import org.opencv.xfeatures2d.SIFT;
 
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import host.exp.exponent.R;
 
 import static edu.washington.cs.ubicomplab.rdt_reader.Constants.*;
-import static java.lang.Math.pow;
 import static java.lang.StrictMath.abs;
 import static org.opencv.core.Core.KMEANS_PP_CENTERS;
 import static org.opencv.core.Core.LUT;
 import static org.opencv.core.Core.kmeans;
-import static org.opencv.core.Core.meanStdDev;
 import static org.opencv.core.Core.perspectiveTransform;
 import static org.opencv.core.CvType.CV_32F;
 import static org.opencv.core.CvType.CV_8U;
@@ -84,18 +95,82 @@ import static org.opencv.imgproc.Imgproc.warpPerspective;
 public class ImageProcessor {
     private static String TAG = "ImageProcessor";
     private static ImageProcessor instance = null;
+    private static final ExecutorService initExecutor = Executors.newSingleThreadExecutor();
+    private static FutureTask<ImageProcessor> initTask = null;
+    private static final List<OnReadyListener> readyListeners = new ArrayList<>();
     private BRISK mFeatureDetector;
-    private BFMatcher mMatcher;
+    private ReferenceMatcher mMatcher;
     private Mat mRefImg;
     private Mat mRefDescriptor;
     private MatOfKeyPoint mRefKeypoints;
     private SIFT siftDetector;
-    private BFMatcher siftMatcher;
+    private ReferenceMatcher siftMatcher;
+    private RDTReference reference;
+    private ReferenceMatcher.Backend matcherBackend = MATCHER_BACKEND;
     private MatOfKeyPoint siftRefKeypoints;
     private Mat siftRefDescriptor;
-    private double refImgSharpness = Double.MIN_VALUE;
     private int mMoveCloserCount = 0;
     private boolean DEBUG_FLAG = false;
+    private Context mContext;
+
+    // The RDT being looked for, and the reference features of recently used RDTs
+    private RDTProfile profile;
+    private final LinkedHashMap<String, RDTReference> referenceCache =
+            new LinkedHashMap<String, RDTReference>(4, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RDTReference> eldest) {
+                    if (size() > Math.max(REFERENCE_CACHE_SIZE, 1)) {
+                        eldest.getValue().release();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // Per-frame working buffers that are reused across frames
+    private MatPool matPool = new MatPool();
+    private int[] brightnessCounts = new int[256];
+    private short[] laplacianBuffer = new short[0];
+    // The reference image's sharpness at the width of the current viewfinder window
+    private volatile double refSharpness;
+    private int refSharpnessWidth;
+    private byte[] brightnessRow = new byte[0];
+
+    // Regions of interest and feature mask for the current camera frame size
+    private FrameGeometry frameGeometry;
+
+    // Frame-to-frame tracking of the RDT between full SIFT detections
+    private FeatureTracker featureTracker = new FeatureTracker();
+    private boolean trackingEnabled = true;
+
+    // Worker pool for running the quality checks of a frame in parallel; created on first use
+    // and shut down by stopQualityWorkers when the camera closes
+    private final Object qualityExecutorLock = new Object();
+    private ExecutorService qualityExecutor;
+    private boolean parallelChecksEnabled = PARALLEL_QUALITY_CHECKS;
+    // Checked between the stages of detection. SIFT extraction cannot be interrupted, so a
+    // cancelled frame still pays for it and only skips the matching and homography after it.
+    private volatile boolean detectionCancelled = false;
+
+    // Ordered, short-circuiting quality gates that run before feature extraction
+    private boolean earlyExitEnabled = EARLY_EXIT_GATES;
+    private List<QualityGate> gateOrder = new ArrayList<>(Arrays.asList(QUALITY_GATE_ORDER));
+    private final EnumSet<QualityGate> enabledGates = EnumSet.allOf(QualityGate.class);
+    private final EnumMap<QualityGate, Double> gateBudgetsMs = new EnumMap<>(QualityGate.class);
+    private final EnumMap<QualityGate, QualityGateStats> gateStats = new EnumMap<>(QualityGate.class);
+    private long framesChecked = 0;
+    private long framesReachingDetection = 0;
+
+    // Per-stage latency histograms, kept in release builds so devices can be compared in the field
+    private final LatencyRecorder<CaptureStage> latencies = new LatencyRecorder<>(CaptureStage.class);
+
+    /**
+     * Receives the result of {@link #initAsync(Context, OnReadyListener)} on the main thread
+     */
+    public interface OnReadyListener {
+        void onReady(ImageProcessor processor);
+        void onError(Throwable error);
+    }
 
     public enum ExposureResult {
         UNDER_EXPOSED, NORMAL, OVER_EXPOSED
@@ -120,6 +195,10 @@ public class ImageProcessor {
         public boolean isShadow;
         public boolean fiducial;
         public double angle;
+        // Whether the exposure and sharpness checks ran on this frame. A gate that was
+        // disabled or never reached leaves its result at the passing value.
+        public boolean exposureChecked;
+        public boolean sharpnessChecked;
 
         public CaptureResult(boolean allChecksPassed, boolean testStripDetected, Mat resultMat, Mat croppedRDT, boolean fiducial,
                              ExposureResult exposureResult, SizeResult sizeResult,  boolean isCentered,
@@ -139,6 +218,37 @@ public class ImageProcessor {
         }
     }
 
+    public static class QualityGateStats {
+        public QualityGate gate;
+        public long evaluated;
+        public long rejected;
+        public long overBudget;
+        public double totalTimeMs;
+
+        public QualityGateStats(QualityGate gate) {
+            this.gate = gate;
+        }
+
+        public QualityGateStats(QualityGateStats other) {
+            this.gate = other.gate;
+            this.evaluated = other.evaluated;
+            this.rejected = other.rejected;
+            this.overBudget = other.overBudget;
+            this.totalTimeMs = other.totalTimeMs;
+        }
+
+        public double getRejectionRate() {
+            return evaluated == 0 ? 0 : (double) rejected / evaluated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d evaluated, %d rejected (%.1f%%), %d over budget, %.2f ms mean",
+                    gate, evaluated, rejected, 100*getRejectionRate(), overBudget,
+                    evaluated == 0 ? 0 : totalTimeMs / evaluated);
+        }
+    }
+
     public static class InterpretationResult {
         public boolean control;
         public boolean testA;
@@ -166,49 +276,477 @@ public class ImageProcessor {
         }
     }
 
-    public ImageProcessor (Activity activity) {
+    public ImageProcessor (Context context) {
+        mContext = context.getApplicationContext();
         mFeatureDetector = BRISK.create(45, 4, 1.0f);
-        mMatcher = BFMatcher.create(BFMatcher.BRUTEFORCE_HAMMING, false);
-        mRefImg = new Mat();
+        siftDetector = SIFT.create();
+        gateBudgetsMs.put(QualityGate.EXPOSURE, EXPOSURE_GATE_BUDGET_MS);
+        gateBudgetsMs.put(QualityGate.SHARPNESS, SHARPNESS_GATE_BUDGET_MS);
+        for (QualityGate gate : QualityGate.values())
+            gateStats.put(gate, new QualityGateStats(gate));
 
-        //Load reference image for Quickvue flu test strip
-        Bitmap bitmap = BitmapFactory.decodeResource(activity.getApplicationContext().getResources(), R.drawable.quickvue_ref_v5);
-        //Load reference image for SD Bioline Malaria RDT
-        //Bitmap bitmap = BitmapFactory.decodeResource(activity.getApplicationContext().getResources(), R.drawable.sd_bioline_malaria_ag_pf);
+        setProfile(DEFAULT_RDT_PROFILE);
+    }
 
-        Utils.bitmapToMat(bitmap, mRefImg);
-        //resize(mRefImg, mRefImg, new Size(bitmap.getWidth(), bitmap.getHeight()));
-        cvtColor(mRefImg, mRefImg, Imgproc.COLOR_RGB2GRAY);
-        mRefDescriptor = new Mat();
-        siftRefDescriptor = new Mat();
-        mRefKeypoints = new MatOfKeyPoint();
-        siftRefKeypoints = new MatOfKeyPoint();
-        long startTime = System.currentTimeMillis();
-        mFeatureDetector.detectAndCompute(mRefImg, new Mat(), mRefKeypoints, mRefDescriptor);
+    /**
+     * Switches the processor to another registered RDT. The reference features are
+     * loaded the first time a profile is used and then kept in an LRU cache of
+     * REFERENCE_CACHE_SIZE profiles, so switching back is cheap.
+     * Must not be called while a frame is being processed.
+     * @param name: the name of a registered {@link RDTProfile}
+     */
+    public synchronized void setProfile(String name) {
+        RDTProfile newProfile = RDTProfile.get(name);
+        if (newProfile == null)
+            throw new IllegalArgumentException("Unknown RDT profile: " + name);
+        if (newProfile == profile)
+            return;
+
+        RDTReference reference = referenceCache.get(name);
+        if (reference == null || reference.profile != newProfile) {
+            reference = loadReference(newProfile);
+            referenceCache.put(name, reference);
+        }
 
-        Imgproc.GaussianBlur(mRefImg, mRefImg, new Size(5, 5), 0, 0);
-        Imgproc.resize(mRefImg, mRefImg, new Size(), REF_IMAGE_SCALE, REF_IMAGE_SCALE, Imgproc.INTER_LINEAR);
-        refImgSharpness = calculateSharpness(mRefImg);
+        profile = newProfile;
+        mRefImg = reference.bundle.refImg;
+        mRefKeypoints = reference.bundle.briskKeypoints;
+        mRefDescriptor = reference.bundle.briskDescriptors;
+        siftRefKeypoints = reference.bundle.siftKeypoints;
+        siftRefDescriptor = reference.bundle.siftDescriptors;
+        this.reference = reference;
+        refSharpness = reference.bundle.sharpness;
+        refSharpnessWidth = reference.bundle.sharpnessWidth;
+        if (frameGeometry != null)
+            updateRefSharpness(frameGeometry);
+        setMatcherBackend(matcherBackend);
+        featureTracker.reset();
+    }
 
-        siftDetector = SIFT.create();
-        siftMatcher = BFMatcher.create(BFMatcher.BRUTEFORCE, false);
-        siftDetector.detectAndCompute(mRefImg, new Mat(), siftRefKeypoints, siftRefDescriptor);
+    /**
+     * @return the profile of the RDT the processor is currently looking for
+     */
+    public synchronized RDTProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Loads the reference features of a profile, reusing the features computed on
+     * a previous launch if the reference image has not changed
+     * @param rdtProfile: the profile to load
+     * @return the loaded reference
+     */
+    private RDTReference loadReference(RDTProfile rdtProfile) {
+        long startTime = System.currentTimeMillis();
+        int refResId = rdtProfile.refResId;
+
+        long refHash = 0;
+        ReferenceBundle bundle = null;
+        try {
+            refHash = ReferenceBundle.hashResource(mContext, refResId);
+            bundle = ReferenceBundle.load(mContext, refResId, refHash);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to hash reference image: " + e.getMessage());
+        }
+        if (bundle == null) {
+            bundle = computeReferenceBundle(mContext, refResId);
+            if (refHash != 0)
+                bundle.save(mContext, refResId, refHash);
+        }
+        RDTReference reference = new RDTReference(rdtProfile, bundle);
 
         if (DEBUG_FLAG) {
-            Log.d(TAG, "BRISK keypoints: " + mRefKeypoints.toArray().length);
-            Log.d(TAG, "SIFT keypoints: " + siftRefKeypoints.toArray().length);
-            Log.d(TAG, "Ref sharpness: " + refImgSharpness);
+            Log.d(TAG, "Profile: " + rdtProfile.name);
+            Log.d(TAG, "BRISK keypoints: " + bundle.briskKeypoints.total());
+            Log.d(TAG, "SIFT keypoints: " + bundle.siftKeypoints.total());
+            Log.d(TAG, "Ref sharpness: " + bundle.sharpness);
             Log.d(TAG, "REFERENCE LOAD/DETECT/COMPUTE: " + (System.currentTimeMillis() - startTime));
         }
+        return reference;
     }
 
+    /**
+     * Detects the BRISK and SIFT features of a reference image from scratch
+     * @param context: the application context
+     * @param resId: the drawable resource id of the reference image
+     * @return the computed reference features
+     */
+    private ReferenceBundle computeReferenceBundle(Context context, int resId) {
+        Mat refImg = new Mat();
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resId);
+        Utils.bitmapToMat(bitmap, refImg);
+        //resize(mRefImg, mRefImg, new Size(bitmap.getWidth(), bitmap.getHeight()));
+        cvtColor(refImg, refImg, Imgproc.COLOR_RGB2GRAY);
+
+        MatOfKeyPoint briskKeypoints = new MatOfKeyPoint();
+        Mat briskDescriptors = new Mat();
+        mFeatureDetector.detectAndCompute(refImg, new Mat(), briskKeypoints, briskDescriptors);
+
+        Imgproc.GaussianBlur(refImg, refImg, new Size(5, 5), 0, 0);
+        Imgproc.resize(refImg, refImg, new Size(), REF_IMAGE_SCALE, REF_IMAGE_SCALE, Imgproc.INTER_LINEAR);
+
+        // Measure sharpness at the viewfinder width of the expected camera frame, so frames of
+        // that size never have to measure the reference themselves
+        FrameGeometry expectedGeometry = new FrameGeometry(CAMERA2_IMAGE_SIZE);
+        int sharpnessWidth = expectedGeometry.scaledViewfinderRect.width;
+        expectedGeometry.release();
+        double sharpness = calculateScaledSharpness(refImg, sharpnessWidth);
+
+        MatOfKeyPoint siftKeypoints = new MatOfKeyPoint();
+        Mat siftDescriptors = new Mat();
+        siftDetector.detectAndCompute(refImg, new Mat(), siftKeypoints, siftDescriptors);
+
+        return new ReferenceBundle(refImg, briskKeypoints, briskDescriptors,
+                siftKeypoints, siftDescriptors, sharpness, sharpnessWidth);
+    }
+
+    /**
+     * Provides the shared processor, waiting for it to finish initializing if necessary.
+     * Prefer {@link #initAsync(Context, OnReadyListener)} on the UI thread.
+     * @param activity: the activity requesting the processor
+     * @return the shared processor, or null if the calling thread was interrupted
+     */
     public static ImageProcessor getInstance(Activity activity) {
-        if (instance == null)
-            instance = new ImageProcessor(activity);
+        try {
+            return initAsync(activity, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("ImageProcessor failed to initialize", e.getCause());
+        }
+    }
 
+    /**
+     * @return the shared processor if it has finished initializing, otherwise null
+     */
+    public static synchronized ImageProcessor getInstanceIfReady() {
         return instance;
     }
 
+    /**
+     * Starts building the shared processor on a background thread if it has not
+     * been started yet, or if a previous attempt failed. The reference features are
+     * loaded (or computed) off the calling thread, so this is safe to call at app launch.
+     * @param context: any context in the app
+     * @param listener: notified on the main thread once the processor is ready or has failed; may be null.
+     *                A listener that is already waiting is not queued again, so it is notified once.
+     * @return a future that completes with the shared processor
+     */
+    public static synchronized Future<ImageProcessor> initAsync(Context context, OnReadyListener listener) {
+        if (initTask == null || (initTask.isDone() && getInitError(initTask) != null)) {
+            final Context appContext = context.getApplicationContext();
+            initTask = new FutureTask<ImageProcessor>(new Callable<ImageProcessor>() {
+                @Override
+                public ImageProcessor call() {
+                    if (!OpenCVLoader.initDebug()) {
+                        Log.d(TAG, "Internal OpenCV library not found. Relying on OpenCV Manager");
+                    }
+                    ImageProcessor processor = new ImageProcessor(appContext);
+                    synchronized (ImageProcessor.class) {
+                        instance = processor;
+                    }
+                    return processor;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    List<OnReadyListener> listeners;
+                    synchronized (ImageProcessor.class) {
+                        listeners = new ArrayList<>(readyListeners);
+                        readyListeners.clear();
+                    }
+                    for (OnReadyListener l : listeners) {
+                        notifyReadyListener(this, l);
+                    }
+                }
+            };
+            initExecutor.execute(initTask);
+        }
+
+        if (listener != null) {
+            if (initTask.isDone()) {
+                notifyReadyListener(initTask, listener);
+            } else if (!readyListeners.contains(listener)) {
+                readyListeners.add(listener);
+            }
+        }
+        return initTask;
+    }
+
+    private static Throwable getInitError(Future<ImageProcessor> task) {
+        try {
+            task.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static void notifyReadyListener(final Future<ImageProcessor> task, final OnReadyListener listener) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = getInitError(task);
+                if (error == null) {
+                    listener.onReady(instance);
+                } else {
+                    Log.e(TAG, "ImageProcessor failed to initialize", error);
+                    listener.onError(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports how many pooled buffers the most recent captureRDT call had to (re)allocate.
+     * This should be zero once the processor has warmed up on a given frame size. Only the
+     * pooled working buffers are counted; the per-frame results of feature matching and
+     * homography estimation, and the Mats handed back in the CaptureResult, are not.
+     * @return the number of pooled Mats whose native buffer was (re)allocated
+     */
+    public int getAllocationsPerFrame() {
+        return matPool.getLastFrameAllocations();
+    }
+
+    /**
+     * Enables or disables frame-to-frame tracking of the RDT in captureRDT. When disabled,
+     * every frame goes through full SIFT detection.
+     * @param enabled: whether tracking should be used
+     */
+    public void setTrackingEnabled(boolean enabled) {
+        trackingEnabled = enabled;
+        featureTracker.reset();
+    }
+
+    /**
+     * Enables or disables running the quality checks of a frame in parallel with detection.
+     * With the early-exit gates enabled, detection starts on a worker when the sharpness gate
+     * is reached, so the two overlap, and is cancelled if that gate or a later one fails.
+     * Otherwise the exposure, sharpness and detection checks all run at once, and detection
+     * is cancelled as soon as the exposure check fails.
+     * @param enabled: whether the checks should run in parallel
+     */
+    public void setParallelChecksEnabled(boolean enabled) {
+        parallelChecksEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables the early-exit gate pipeline. While enabled, the quality gates run
+     * in order before detection; see {@link #setParallelChecksEnabled(boolean)} for how the
+     * two combine.
+     * @param enabled: whether frames that fail a gate should skip the remaining checks
+     */
+    public void setEarlyExitEnabled(boolean enabled) {
+        earlyExitEnabled = enabled;
+    }
+
+    /**
+     * Sets the order the quality gates run in, usually cheapest first
+     * @param order: the gates in the order they should run; gates left out do not run
+     */
+    public synchronized void setGateOrder(QualityGate... order) {
+        gateOrder = new ArrayList<>(Arrays.asList(order));
+    }
+
+    private synchronized List<QualityGate> getGateOrder() {
+        return gateOrder;
+    }
+
+    /**
+     * Enables or disables a single quality gate
+     * @param gate: the gate
+     * @param enabled: whether the gate should run
+     */
+    public synchronized void setGateEnabled(QualityGate gate, boolean enabled) {
+        if (enabled)
+            enabledGates.add(gate);
+        else
+            enabledGates.remove(gate);
+    }
+
+    private synchronized boolean isGateEnabled(QualityGate gate) {
+        return enabledGates.contains(gate);
+    }
+
+    /**
+     * Sets the time a quality gate is expected to take; gates that run longer are counted as over budget
+     * @param gate: the gate
+     * @param budgetMs: the budget in milliseconds
+     */
+    public synchronized void setGateBudget(QualityGate gate, double budgetMs) {
+        gateBudgetsMs.put(gate, budgetMs);
+    }
+
+    /**
+     * @return a snapshot of how often each quality gate has run and rejected a frame
+     */
+    public List<QualityGateStats> getGateStats() {
+        List<QualityGateStats> stats = new ArrayList<>();
+        synchronized (gateStats) {
+            for (QualityGateStats gateStat : gateStats.values())
+                stats.add(new QualityGateStats(gateStat));
+        }
+        return stats;
+    }
+
+    /**
+     * @return the fraction of gated frames that passed every gate and went on to feature extraction
+     */
+    public double getDetectionRate() {
+        synchronized (gateStats) {
+            return framesChecked == 0 ? 0 : (double) framesReachingDetection / framesChecked;
+        }
+    }
+
+    /**
+     * Records how long a stage took, for stages timed outside the processor such as frame conversion
+     * @param stage: the stage
+     * @param nanos: the elapsed time from System.nanoTime()
+     */
+    public void recordLatency(CaptureStage stage, long nanos) {
+        latencies.record(stage, nanos);
+    }
+
+    /**
+     * @return the count and p50/p95/p99 latency of every stage that has run
+     */
+    public List<LatencyRecorder.StageSummary> getLatencySummaries() {
+        return latencies.getSummaries();
+    }
+
+    /**
+     * Clears the latency histograms
+     */
+    public void resetLatencies() {
+        latencies.reset();
+    }
+
+    private void recordGate(QualityGate gate, boolean passed, double timeMs) {
+        double budgetMs;
+        synchronized (this) {
+            budgetMs = gateBudgetsMs.get(gate);
+        }
+        synchronized (gateStats) {
+            QualityGateStats stats = gateStats.get(gate);
+            stats.evaluated++;
+            stats.totalTimeMs += timeMs;
+            if (!passed)
+                stats.rejected++;
+            if (timeMs > budgetMs)
+                stats.overBudget++;
+        }
+        if (DEBUG_FLAG)
+            Log.d(TAG, String.format("Gate %s %s in %.2f ms", gate, passed ? "passed" : "rejected", timeMs));
+    }
+
+    /**
+     * Runs a quality check on the worker pool, starting the pool if it is not running
+     * @param check: the check to run
+     * @return the pending check
+     */
+    private <T> Future<T> submitQualityCheck(Callable<T> check) {
+        synchronized (qualityExecutorLock) {
+            if (qualityExecutor == null) {
+                qualityExecutor = Executors.newFixedThreadPool(getQualityWorkerCount(), new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "QualityCheck-" + count++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return qualityExecutor.submit(check);
+        }
+    }
+
+    /**
+     * Shuts down the quality check workers, letting any check already submitted finish.
+     * The processor is shared across camera sessions, so this is called when the camera
+     * closes; the next frame that needs a worker starts the pool again.
+     */
+    public void stopQualityWorkers() {
+        synchronized (qualityExecutorLock) {
+            if (qualityExecutor != null) {
+                qualityExecutor.shutdown();
+                qualityExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for a quality check to finish, even if the calling thread is interrupted,
+     * since its worker is still using the frame's pooled Mats
+     * @param future: the pending check
+     * @return the result of the check
+     */
+    private <T> T join(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    detectionCancelled = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sizes the quality check pool to the device's fastest cores, which are the
+     * cores reporting the highest maximum frequency
+     * @return the number of workers, between 1 and 2
+     */
+    private static int getQualityWorkerCount() {
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        long maxFreq = 0;
+        int bigCores = 0;
+        for (int i = 0; i < cpuCount; i++) {
+            File file = new File("/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq");
+            long freq = 0;
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                try {
+                    freq = Long.parseLong(reader.readLine().trim());
+                } finally {
+                    reader.close();
+                }
+            } catch (Exception e) {
+                // Frequency not readable, so treat every core as equal
+            }
+            if (freq > maxFreq) {
+                maxFreq = freq;
+                bigCores = 1;
+            } else if (freq == maxFreq) {
+                bigCores++;
+            }
+        }
+        // Only the sharpness check and detection are offloaded
+        return Math.max(1, Math.min(bigCores, 2));
+    }
+
+    /**
+     * Selects the backend used to match frame descriptors against the reference descriptors
+     * @param backend: the matcher backend
+     */
+    public synchronized void setMatcherBackend(ReferenceMatcher.Backend backend) {
+        matcherBackend = backend;
+        mMatcher = reference.getBriskMatcher(backend);
+        siftMatcher = reference.getSiftMatcher(backend);
+    }
+
     public static void loadOpenCV(Context context, BaseLoaderCallback mLoaderCallback) {
         if (!OpenCVLoader.initDebug()) {
             Log.d(TAG, "Internal OpenCV library not found. Using OpenCV Manager for initialization");
@@ -226,19 +764,149 @@ public class ImageProcessor {
      * @return a CaptureResult object with details for feedback
      */
     public CaptureResult captureRDT(Mat inputMat) {
+        matPool.beginFrame(inputMat.size());
+
         // Convert the input to grayscale
-        Mat greyMat = new Mat();
+        long startTime = System.nanoTime();
+        Mat greyMat = matPool.get("grey");
         cvtColor(inputMat, greyMat, Imgproc.COLOR_RGBA2GRAY);
+        latencies.record(CaptureStage.CONVERSION, System.nanoTime() - startTime);
+        return captureRDT(greyMat, inputMat, -1);
+    }
+
+    /**
+     * Attempts to identify the presence of the RDT within a YUV camera frame. The quality
+     * checks and detection read the luminance plane in place, and only the region around
+     * the RDT is converted to color, once the geometric checks have passed.
+     * @param yuvMat: the frame, laid out as in {@link ImageUtil.YuvFrame}
+     * @param rgbaConversion: the cvtColor code that converts the frame to RGBA
+     * @return a CaptureResult object with details for feedback; resultMat and croppedRDTMat
+     * are only filled in when every check passes
+     */
+    public CaptureResult captureRDT(Mat yuvMat, int rgbaConversion) {
+        Mat greyMat = yuvMat.rowRange(0, yuvMat.rows() * 2 / 3);
+        matPool.beginFrame(greyMat.size());
+        CaptureResult result = captureRDT(greyMat, yuvMat, rgbaConversion);
+        greyMat.release();
+        return result;
+    }
+
+    /**
+     * Runs the capture checks on a grey frame
+     * @param greyMat: the grey frame
+     * @param colorMat: the frame the color crops are taken from
+     * @param rgbaConversion: the cvtColor code for a YUV colorMat, or -1 if it is already RGBA
+     */
+    private CaptureResult captureRDT(final Mat greyMat, Mat colorMat, int rgbaConversion) {
+        final FrameGeometry geometry = getFrameGeometry(greyMat.size());
+
+        // Downsample once; sharpness and detection both work on this level
+        final Mat scaledMat = scaleFrame(greyMat, geometry);
+        final Mat viewfinderMat = scaledMat.submat(geometry.scaledViewfinderRect);
+
+        ExposureResult exposureResult = ExposureResult.NORMAL;
+        boolean isSharp = true;
+        boolean exposureChecked = true;
+        boolean sharpnessChecked = true;
+        MatOfPoint2f boundary;
+        if (earlyExitEnabled) {
+            // Run the cheap gates in order, stopping at the first one that rejects the frame.
+            // Gates that are disabled or never reached keep their passing values and stay unchecked.
+            boolean gatesPassed = true;
+            exposureChecked = false;
+            sharpnessChecked = false;
+            Future<MatOfPoint2f> boundaryFuture = null;
+            detectionCancelled = false;
+            for (QualityGate gate : getGateOrder()) {
+                if (!isGateEnabled(gate))
+                    continue;
+
+                // Start detection alongside the sharpness check, the most expensive gate
+                if (gate == QualityGate.SHARPNESS && parallelChecksEnabled && boundaryFuture == null) {
+                    boundaryFuture = submitQualityCheck(new Callable<MatOfPoint2f>() {
+                        @Override
+                        public MatOfPoint2f call() {
+                            return locateRDT(scaledMat, geometry, 5);
+                        }
+                    });
+                }
 
-        // Check brightness
-        ExposureResult exposureResult = checkBrightness(greyMat);
+                long startTime = System.nanoTime();
+                boolean gatePassed;
+                switch (gate) {
+                    case EXPOSURE:
+                        exposureResult = checkBrightness(greyMat);
+                        exposureChecked = true;
+                        gatePassed = exposureResult == ExposureResult.NORMAL;
+                        break;
+                    case SHARPNESS:
+                    default:
+                        isSharp = checkSharpness(viewfinderMat);
+                        sharpnessChecked = true;
+                        gatePassed = isSharp;
+                        break;
+                }
+                recordGate(gate, gatePassed, (System.nanoTime() - startTime) / 1e6);
 
-        // Check sharpness
-        boolean isSharp = checkSharpness(greyMat.submat(getViewfinderRect(greyMat)));
+                if (!gatePassed) {
+                    gatesPassed = false;
+                    break;
+                }
+            }
+            // Only frames that pass every gate keep a detection
+            synchronized (gateStats) {
+                framesChecked++;
+                if (gatesPassed)
+                    framesReachingDetection++;
+            }
+            if (boundaryFuture != null) {
+                if (!gatesPassed)
+                    detectionCancelled = true;
+                boundary = join(boundaryFuture);
+                detectionCancelled = false;
+                if (!gatesPassed) {
+                    boundary.release();
+                    boundary = new MatOfPoint2f();
+                }
+            } else {
+                boundary = gatesPassed ? locateRDT(scaledMat, geometry, 5) : new MatOfPoint2f();
+            }
+        } else if (parallelChecksEnabled) {
+            // Fan the sharpness check and detection out to the workers; they only read the grey frame
+            detectionCancelled = false;
+            Future<Boolean> sharpFuture = submitQualityCheck(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return checkSharpness(viewfinderMat);
+                }
+            });
+            Future<MatOfPoint2f> boundaryFuture = submitQualityCheck(new Callable<MatOfPoint2f>() {
+                @Override
+                public MatOfPoint2f call() {
+                    return locateRDT(scaledMat, geometry, 5);
+                }
+            });
+
+            // Check brightness, and skip the rest of the detection if it already failed
+            exposureResult = checkBrightness(greyMat);
+            if (exposureResult != ExposureResult.NORMAL)
+                detectionCancelled = true;
+
+            isSharp = join(sharpFuture);
+            boundary = join(boundaryFuture);
+            detectionCancelled = false;
+        } else {
+            // Check brightness
+            exposureResult = checkBrightness(greyMat);
+
+            // Check sharpness
+            isSharp = checkSharpness(viewfinderMat);
 
-        // Attempt to detect the RDT using homography
-        MatOfPoint2f boundary = detectRDTWithSIFT(greyMat, 5);
-//        MatOfPoint2f boundary = detectRDT(greyMat);
+            // Attempt to detect the RDT using homography
+            boundary = locateRDT(scaledMat, geometry, 5);
+//            boundary = detectRDT(greyMat);
+        }
+        viewfinderMat.release();
 
         // Check the detected RDT's size, position, and orientation
         boolean isCentered = false;
@@ -264,69 +932,182 @@ public class ImageProcessor {
         // Check for fiducials for QuickVue strip
         boolean fiducial = false;
         Mat correctedMat = new Mat();
+        Mat croppedMat = null;
         if (passed) {
-            correctedMat = cropRDT(inputMat, boundary);
+            if (rgbaConversion < 0) {
+                correctedMat = cropRDT(colorMat, boundary);
+                croppedMat = crop(colorMat);
+            } else {
+                // Convert only the parts of the frame covering the crop and the RDT to color,
+                // converting the RDT's region on its own only when the crop does not cover it
+                Rect cropRect = getCropRect(greyMat.size());
+                Rect cropColorRect = getColorRect(cropRect.x, cropRect.y,
+                        cropRect.x + cropRect.width, cropRect.y + cropRect.height, greyMat.size());
+                Rect rdtColorRect = getColorRect(boundary, greyMat.size());
+                Mat cropRgbaMat = ImageUtil.yuvToRGBMat(colorMat, rgbaConversion, cropColorRect);
+                Mat rdtRgbaMat = cropRgbaMat;
+                if (cropColorRect.contains(rdtColorRect.tl()) &&
+                        cropColorRect.contains(new Point(rdtColorRect.br().x - 1, rdtColorRect.br().y - 1))) {
+                    rdtColorRect = cropColorRect;
+                } else {
+                    rdtRgbaMat = ImageUtil.yuvToRGBMat(colorMat, rgbaConversion, rdtColorRect);
+                }
+                MatOfPoint2f colorBoundary = new MatOfPoint2f();
+                Core.subtract(boundary, new Scalar(rdtColorRect.x, rdtColorRect.y), colorBoundary);
+                correctedMat = cropRDT(rdtRgbaMat, colorBoundary);
+                croppedMat = cropRgbaMat.submat(new Rect(cropRect.x - cropColorRect.x, cropRect.y - cropColorRect.y,
+                        cropRect.width, cropRect.height));
+                colorBoundary.release();
+                if (rdtRgbaMat != cropRgbaMat)
+                    rdtRgbaMat.release();
+                cropRgbaMat.release();
+            }
+            long startTime = System.nanoTime();
             Mat resultMat = cropResultWindow(correctedMat);
+            latencies.record(CaptureStage.FIDUCIAL, System.nanoTime() - startTime);
             fiducial = resultMat.width() > 0 && resultMat.height() > 0;
             resultMat.release();
             passed = fiducial;
             if (DEBUG_FLAG)
                 Log.d(TAG, String.format("fiducial: %b", fiducial));
+        } else if (rgbaConversion < 0) {
+            croppedMat = crop(colorMat);
         }
 
-        // Release resources
-        greyMat.release();
+        // Count the pooled buffers (re)allocated by this frame
+        matPool.endFrame();
+        if (DEBUG_FLAG)
+            Log.d(TAG, String.format("pooled allocations per frame: %d", matPool.getLastFrameAllocations()));
 
         // Return a CaptureResult object
-        return new CaptureResult(passed, testStripDetected, crop(inputMat), correctedMat, fiducial, exposureResult, sizeResult,
+        CaptureResult result = new CaptureResult(passed, testStripDetected, croppedMat, correctedMat, fiducial, exposureResult, sizeResult,
                 isCentered, isRightOrientation, angle, isSharp, false, boundary);
+        result.exposureChecked = exposureChecked;
+        result.sharpnessChecked = sharpnessChecked;
+        return result;
+    }
+
+    /**
+     * Finds the part of the frame that has to be converted to color to cover the RDT
+     * @param boundary: the detected RDT
+     * @param size: the size of the frame
+     * @return the region to convert, as described in {@link #getColorRect(double, double, double, double, Size)}
+     */
+    private static Rect getColorRect(MatOfPoint2f boundary, Size size) {
+        double left = size.width;
+        double top = size.height;
+        double right = 0;
+        double bottom = 0;
+        for (Point p : boundary.toArray()) {
+            left = Math.min(left, p.x);
+            top = Math.min(top, p.y);
+            right = Math.max(right, p.x + 1);
+            bottom = Math.max(bottom, p.y + 1);
+        }
+        return getColorRect(left, top, right, bottom, size);
+    }
+
+    /**
+     * Finds the part of the frame that has to be converted to color to cover a region. The
+     * region is clipped to the frame and padded out to the 4-pixel alignment that YUV 4:2:0
+     * region conversion needs. If the padding would run past the edge of a frame whose size
+     * is not a multiple of 4, the whole frame is used instead.
+     * @param left: the left edge of the region
+     * @param top: the top edge of the region
+     * @param right: the right edge of the region, exclusive
+     * @param bottom: the bottom edge of the region, exclusive
+     * @param size: the size of the frame
+     * @return the aligned region, or the whole frame
+     */
+    private static Rect getColorRect(double left, double top, double right, double bottom, Size size) {
+        int width = (int) size.width;
+        int height = (int) size.height;
+        int x = (int) Math.floor(Math.max(0, Math.min(left, width))) & ~3;
+        int y = (int) Math.floor(Math.max(0, Math.min(top, height))) & ~3;
+        int endX = ((int) Math.ceil(Math.max(0, Math.min(right, width))) + 3) & ~3;
+        int endY = ((int) Math.ceil(Math.max(0, Math.min(bottom, height))) + 3) & ~3;
+        if (endX > width || endY > height || endX <= x || endY <= y)
+            return new Rect(0, 0, width, height);
+        return new Rect(x, y, endX - x, endY - y);
     }
 
     /**
      * Determines if the input image is sufficiently sharp
-     * @param inputMat: the input image
+     * @param inputMat: the viewfinder window of the downsampled frame
      * @return a boolean that describes whether the sharpness is good enough or not
      */
     private boolean checkSharpness(Mat inputMat) {
-        // Resize the image
-        Mat resized = new Mat();
-        double scaleFactor = mRefImg.size().width/inputMat.size().width;
-        resize(inputMat, resized, new Size(inputMat.size().width*scaleFactor,
-                inputMat.size().height*scaleFactor));
-
         // Calculate sharpness
-        double sharpness = calculateSharpness(resized);
+        long startTime = System.nanoTime();
+        double sharpness = calculateSharpness(inputMat);
+        latencies.record(CaptureStage.SHARPNESS, System.nanoTime() - startTime);
         if (DEBUG_FLAG)
             Log.d(TAG, String.format("inputMat sharpness: %.2f", sharpness));
 
-        // Release resources
-        inputMat.release();
-        resized.release();
-
         // Compare sharpness to requirement
-        return sharpness > (refImgSharpness * (1-SHARPNESS_THRESHOLD));
+        return sharpness > (refSharpness * (1-SHARPNESS_THRESHOLD));
     }
 
     /**
-     * Computes a sharpness value for the input image
-     * @param input: the input image
-     * @return mBuff: the squared standard deviation of the Laplacian
+     * Makes the reference sharpness match the viewfinder width of a new frame size, so the two
+     * can be compared directly. The stored bundle already holds it for the expected frame size.
+     * @param geometry: the geometry of the new frame size
      */
-    private double calculateSharpness(Mat input) {
-        // Compute Laplacian
-        Mat laplace = new Mat();
-        Laplacian(input, laplace, CvType.CV_64F);
+    private synchronized void updateRefSharpness(FrameGeometry geometry) {
+        int width = geometry.scaledViewfinderRect.width;
+        if (width == refSharpnessWidth)
+            return;
+        refSharpness = calculateScaledSharpness(mRefImg, width);
+        refSharpnessWidth = width;
+        if (DEBUG_FLAG)
+            Log.d(TAG, String.format("scaled reference sharpness: %.2f", refSharpness));
+    }
 
-        // Compute Laplacian's mean and stdev
-        MatOfDouble median = new MatOfDouble();
-        MatOfDouble std = new MatOfDouble();
-        meanStdDev(laplace, median, std);
+    /**
+     * Computes the sharpness of the reference image scaled to a given width
+     * @param refImg: the processed grey reference image
+     * @param width: the width to scale the reference image to
+     * @return the squared standard deviation of the scaled reference image's Laplacian
+     */
+    private double calculateScaledSharpness(Mat refImg, int width) {
+        Mat scaledRef = new Mat();
+        double scaleFactor = width/refImg.size().width;
+        resize(refImg, scaledRef, new Size(refImg.size().width*scaleFactor,
+                refImg.size().height*scaleFactor));
+        double sharpness = calculateSharpness(scaledRef);
+        scaledRef.release();
+        return sharpness;
+    }
 
-        // Release resources
-        laplace.release();
+    /**
+     * Computes a sharpness value for the input image. The Laplacian of an 8-bit image fits
+     * in 16 bits, so it is computed as CV_16S and its variance is accumulated in integers.
+     * @param input: the input image
+     * @return the squared standard deviation of the Laplacian
+     */
+    private synchronized double calculateSharpness(Mat input) {
+        // Compute Laplacian
+        Mat laplace = matPool.get("sharpness.laplacian");
+        Laplacian(input, laplace, CvType.CV_16S);
+
+        // Compute Laplacian's variance from a single bulk copy
+        int length = (int) laplace.total();
+        if (length == 0)
+            return 0;
+        if (laplacianBuffer.length != length)
+            laplacianBuffer = new short[length];
+        laplace.get(0, 0, laplacianBuffer);
+        long sum = 0;
+        long sumSquares = 0;
+        for (int i = 0; i < length; i++) {
+            int value = laplacianBuffer[i];
+            sum += value;
+            sumSquares += value*value;
+        }
 
         // Return squared stdev
-        return pow(std.get(0,0)[0], 2);
+        double mean = (double) sum/length;
+        return (double) sumSquares/length - mean*mean;
     }
 
     /**
@@ -337,16 +1118,18 @@ public class ImageProcessor {
      */
     private ExposureResult checkBrightness(Mat inputMat) {
         // Compute brightness histograms
+        long startTime = System.nanoTime();
         float[] histograms = calculateBrightness(inputMat);
 
-        // Calculate brightest value
+        // Take the brightest value from the highest non-empty bin of the sampled histogram
         int maxWhite = 0;
-        for (int i = histograms.length-1; i >= 0; i--) {
+        for (int i = histograms.length-1; i > 0; i--) {
             if (histograms[i] > 0) {
                 maxWhite = i;
                 break;
             }
         }
+        latencies.record(CaptureStage.EXPOSURE, System.nanoTime() - startTime);
 
         // Compute amount of clipping
         float clippingCount = histograms[histograms.length-1];
@@ -366,34 +1149,41 @@ public class ImageProcessor {
     }
 
     /**
-     * Computes a brightness histogram for the input image
-     * @param input: the input image
+     * Computes a brightness histogram for the input image from a sparse grid of pixels.
+     * Every EXPOSURE_SAMPLE_STRIDE-th pixel of every EXPOSURE_SAMPLE_STRIDE-th row is
+     * counted, and the histogram is normalized the same way as the full histogram was,
+     * so the clipping count keeps its meaning.
+     * @param input: the input image, a single grey channel
      * @return mBuff: a float[] histogram with 256 elements
      */
     private float[] calculateBrightness(Mat input) {
         // Initialize variables
         int mHistSizeNum = 256;
-        MatOfInt mHistSize = new MatOfInt(mHistSizeNum);
-        Mat hist = new Mat();
         final float[] mBuff = new float[mHistSizeNum];
-        MatOfFloat histogramRanges = new MatOfFloat(0f, 256f);
-        MatOfInt mChannels[] = new MatOfInt[] { new MatOfInt(0)};
-        org.opencv.core.Size sizeRgba = input.size();
-
-        // Go through each channel, normalize the histogram, and add it to mBuff
-        // TODO: this for loop is somewhat set up to handle multi-channel, but not done
-        for (int ch = 0; ch < input.channels(); ch++) {
-            Imgproc.calcHist(Arrays.asList(input), mChannels[ch], new Mat(), hist,
-                    mHistSize, histogramRanges);
-            Core.normalize(hist, hist, sizeRgba.height/2, 0, Core.NORM_INF);
-            hist.get(0, 0, mBuff);
-            mChannels[ch].release();
+        int rows = input.rows();
+        int cols = input.cols();
+        int stride = Math.max(EXPOSURE_SAMPLE_STRIDE, 1);
+        if (brightnessRow.length != cols)
+            brightnessRow = new byte[cols];
+        Arrays.fill(brightnessCounts, 0);
+
+        // Count the sampled pixels, copying each sampled row out in a single call
+        for (int j = stride/2; j < rows; j += stride) {
+            input.get(j, 0, brightnessRow);
+            for (int i = stride/2; i < cols; i += stride)
+                brightnessCounts[brightnessRow[i] & 0xFF]++;
+        }
+
+        // Normalize so the largest bin is half the image height
+        int maxCount = 0;
+        for (int count : brightnessCounts)
+            maxCount = Math.max(maxCount, count);
+        if (maxCount > 0) {
+            double scale = (rows/2.0) / maxCount;
+            for (int i = 0; i < mHistSizeNum; i++)
+                mBuff[i] = (float) (brightnessCounts[i] * scale);
         }
 
-        // Release resources
-        mHistSize.release();
-        histogramRanges.release();
-        hist.release();
         return mBuff;
     }
 
@@ -477,17 +1267,21 @@ public class ImageProcessor {
     }
 
     private Mat crop(Mat inputMat) {
-        int width = (int)(inputMat.cols() * CROP_RATIO);
-        int height = (int)(inputMat.rows() * CROP_RATIO);
-        int x = (int)(inputMat.cols() * (1.0-CROP_RATIO)/2);
-        int y = (int)(inputMat.rows() * (1.0-CROP_RATIO)/2);
-
-        Rect roi = new Rect(x, y, width, height);
+        Rect roi = getCropRect(inputMat.size());
         Mat cropped = new Mat(inputMat, roi);
 
         return cropped;
     }
 
+    private Rect getCropRect(Size size) {
+        int width = (int)(size.width * CROP_RATIO);
+        int height = (int)(size.height * CROP_RATIO);
+        int x = (int)(size.width * (1.0-CROP_RATIO)/2);
+        int y = (int)(size.height * (1.0-CROP_RATIO)/2);
+
+        return new Rect(x, y, width, height);
+    }
+
     public int getInstructionText(SizeResult sizeResult, boolean isCentered, boolean isRightOrientation) {
         int instructions = R.string.instruction_pos;
 
@@ -600,9 +1394,13 @@ public class ImageProcessor {
         //resultMat = enhanceResultWindow(resultMat, new Size(10, 10));
         //resultMat = correctGamma(resultMat, 0.75);
 
-        control = readControlLine(resultMat, new Point(CONTROL_LINE_POSITION, 0));
-        testA = readTestLine(resultMat, new Point(TEST_A_LINE_POSITION, 0));
-        testB = readTestLine(resultMat, new Point(TEST_B_LINE_POSITION, 0));
+        // Every line is read from the same column profiles
+        long startTime = System.nanoTime();
+        ResultWindowProfile windowProfile = new ResultWindowProfile(resultMat);
+        control = readControlLine(windowProfile, new Point(profile.controlLinePosition, 0));
+        testA = readTestLine(windowProfile, new Point(profile.testALinePosition, 0));
+        testB = readTestLine(windowProfile, new Point(profile.testBLinePosition, 0));
+        latencies.record(CaptureStage.LINE_READ, System.nanoTime() - startTime);
 
         grayMat.release();
         mu.release();
@@ -616,6 +1414,15 @@ public class ImageProcessor {
         Mat grayMat = new Mat();
         cvtColor(inputMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
 
+        // Compute features and matches once; only the homography depends on the threshold.
+        // The image need not come from the camera, so it gets its own geometry rather than
+        // replacing the camera's, which would also reset the tracker and reference sharpness.
+        FrameGeometry geometry = new FrameGeometry(grayMat.size());
+        Mat croppedMat = scaleAndCropForFeatures(grayMat, geometry);
+        MatchedPoints matchedPoints = matchSIFTFeatures(croppedMat, geometry.siftMask);
+        croppedMat.release();
+        geometry.release();
+
         int cnt = 3;
         SizeResult isSizeable = SizeResult.INVALID;
         boolean isCentered = false;
@@ -623,7 +1430,10 @@ public class ImageProcessor {
 
         do {
             cnt++;
-            boundary = detectRDTWithSIFT(grayMat, cnt);
+            if (matchedPoints != null) {
+                boundary.release();
+                boundary = boundaryFromMatches(matchedPoints, geometry.siftRoi.tl(), cnt, null);
+            }
             isSizeable = checkSize(boundary, new Size(inputMat.size().width/CROP_RATIO, inputMat.size().height/CROP_RATIO));
             isCentered = checkIfCentered(boundary, inputMat.size());
             isUpright = checkOrientation(boundary);
@@ -632,6 +1442,10 @@ public class ImageProcessor {
                         isSizeable, isCentered, isUpright, inputMat.size().width, inputMat.size().height, cnt));
         } while(!(isSizeable==SizeResult.RIGHT_SIZE && isCentered && isUpright) && cnt < 8);
 
+        if (matchedPoints != null)
+            matchedPoints.release();
+        grayMat.release();
+
         if (boundary.size().width <= 0 && boundary.size().height <= 0)
             return new InterpretationResult();
 
@@ -639,54 +1453,94 @@ public class ImageProcessor {
     }
 
     private Rect returnResultWindowRect(Mat inputMat) {
-        return new Rect(RESULT_WINDOW_X, RESULT_WINDOW_Y, RESULT_WINDOW_WIDTH, RESULT_WINDOW_HEIGHT);
+        return new Rect(profile.resultWindowX, profile.resultWindowY, profile.resultWindowWidth, profile.resultWindowHeight);
     }
 
     /**
-     * Uses k-means clustering to find if there is a fiducial where we expected
+     * Uses k-means clustering to find if there is a fiducial where we expected.
+     * The clusters are fit on a subsample of the pixels, then every pixel is assigned
+     * to its nearest center and binarized through a per-center lookup.
      * @param inputMat: the input image
      * @return
      */
     private Rect checkFiducialKMeans(Mat inputMat) {
         // Initialize resources
         int k = 5;
-        Mat data = new Mat();
-        inputMat.convertTo(data, CV_32F);
-        cvtColor(data, data, COLOR_RGBA2RGB);
-        data = data.reshape(1, (int) data.total());
+        Mat rgb = new Mat();
+        cvtColor(inputMat, rgb, COLOR_RGBA2RGB);
+        Mat pixels = new Mat();
+        rgb.convertTo(pixels, CV_32F);
+
+        // Fit the clusters on a subsample of the pixels
+        Mat sample = new Mat();
+        resize(pixels, sample, new Size(), FIDUCIAL_KMEANS_SCALE, FIDUCIAL_KMEANS_SCALE, Imgproc.INTER_NEAREST);
+        if (sample.total() < k)
+            pixels.copyTo(sample);
+        Mat data = sample.reshape(1, (int) sample.total());
         Mat centers = new Mat();
         Mat labels = new Mat();
 
         // Perform k-means in RGB
         TermCriteria criteria = new TermCriteria(TermCriteria.EPS+TermCriteria.MAX_ITER, 100, 1.0);
         kmeans(data, k, labels, criteria, 10, KMEANS_PP_CENTERS, centers);
-
-        // Extract results and place them in data structures
-        centers = centers.reshape(3, centers.rows());
-        data = data.reshape(3, data.rows());
-        for (int i = 0; i < data.rows(); i++) {
-            int centerId = (int) labels.get(i,0)[0];
-            data.put(i, 0, centers.get(centerId,0));
-        }
-        data = data.reshape(3, inputMat.rows());
-        data.convertTo(data, CV_8UC3);
+        float[] centerValues = new float[k*3];
+        centers.get(0, 0, centerValues);
 
         // Identify center with darkest value
         double[] minCenter = new double[3];
         double minCenterVal = Double.MAX_VALUE;
-        for (int i = 0; i < centers.rows(); i++) {
-            double val = centers.get(i,0)[0] + centers.get(i,0)[1] + centers.get(i,0)[2];
+        for (int i = 0; i < k; i++) {
+            double val = centerValues[i*3] + centerValues[i*3+1] + centerValues[i*3+2];
             if (val < minCenterVal) {
-                minCenter = centers.get(i,0);
+                minCenter = new double[]{centerValues[i*3], centerValues[i*3+1], centerValues[i*3+2]};
                 minCenterVal = val;
             }
         }
 
-        // Convert to lightness value and binarize the image according to that threshold
+        // Convert to lightness value and binarize each center according to that threshold,
+        // using the same 8-bit grey conversion the quantized image would go through
         double thresh = 0.299 * minCenter[0] + 0.587 * minCenter[1] + 0.114 * minCenter[2] + 20.0;
-        cvtColor(data, data, COLOR_RGB2GRAY);
-        Mat threshold = new Mat();
-        Imgproc.threshold(data, threshold, thresh, 255, THRESH_BINARY_INV);
+        Mat centerGray = new Mat();
+        centers.reshape(3, 1).convertTo(centerGray, CV_8UC3);
+        cvtColor(centerGray, centerGray, COLOR_RGB2GRAY);
+        byte[] centerGrayValues = new byte[k];
+        centerGray.get(0, 0, centerGrayValues);
+        double[] centerBinary = new double[k];
+        for (int i = 0; i < k; i++)
+            centerBinary[i] = (centerGrayValues[i] & 0xFF) > thresh ? 0 : 255;
+
+        // Assign every pixel to its nearest center and look up that center's binary value
+        Mat threshold = new Mat(rgb.size(), CV_8U);
+        Mat channelSum = new Mat(1, 3, CV_32F, new Scalar(1));
+        Mat centerDiff = new Mat();
+        Mat dist = new Mat();
+        Mat minDist = new Mat();
+        Mat closer = new Mat();
+        for (int i = 0; i < k; i++) {
+            Core.subtract(pixels, new Scalar(centerValues[i*3], centerValues[i*3+1], centerValues[i*3+2]), centerDiff);
+            Core.multiply(centerDiff, centerDiff, centerDiff);
+            Core.transform(centerDiff, dist, channelSum);
+            if (i == 0) {
+                dist.copyTo(minDist);
+                threshold.setTo(new Scalar(centerBinary[i]));
+            } else {
+                Core.compare(dist, minDist, closer, Core.CMP_LT);
+                dist.copyTo(minDist, closer);
+                threshold.setTo(new Scalar(centerBinary[i]), closer);
+            }
+        }
+        rgb.release();
+        pixels.release();
+        data.release();
+        sample.release();
+        centers.release();
+        labels.release();
+        centerGray.release();
+        channelSum.release();
+        centerDiff.release();
+        dist.release();
+        minDist.release();
+        closer.release();
 
         // Clean up the mask
         Mat element_erode = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
@@ -706,8 +1560,8 @@ public class ImageProcessor {
         for (int i = 0; i < contours.size(); i++) {
             Rect rect = Imgproc.boundingRect(contours.get(i));
             double rectPos = rect.x + rect.width;
-            if (FIDUCIAL_POSITION_MIN < rectPos && rectPos < FIDUCIAL_POSITION_MAX && FIDUCIAL_MIN_HEIGHT < rect.height &&
-                    FIDUCIAL_MIN_WIDTH < rect.width && rect.width < FIDUCIAL_MAX_WIDTH) {
+            if (profile.fiducialPositionMin < rectPos && rectPos < profile.fiducialPositionMax && profile.fiducialMinHeight < rect.height &&
+                    profile.fiducialMinWidth < rect.width && rect.width < profile.fiducialMaxWidth) {
                 fiducialRects.add(rect);
                 if (DEBUG_FLAG)
                     Log.d(TAG, String.format("Fiducial rect size: %s %s %s", rect.tl(), rect.br(), rect.size()));
@@ -715,7 +1569,7 @@ public class ImageProcessor {
         }
 
         // check positioning between the fiducials assuming there are 2
-        if (fiducialRects.size() == FIDUCIAL_COUNT) {
+        if (fiducialRects.size() == profile.fiducialCount) {
             // Calculate the fiducials' x position
             double center0x = fiducialRects.get(0).x + fiducialRects.get(0).width;
             double center1x = fiducialRects.get(1).x + fiducialRects.get(1).width;
@@ -723,30 +1577,30 @@ public class ImageProcessor {
             // Calculate their midpoint, distance, scale, and offset
             int midpoint = (int) ((center0x + center1x) / 2);
             double diff = abs(center0x - center1x);
-            double scale = FIDUCIAL_DISTANCE == 0 ? 1 : diff / FIDUCIAL_DISTANCE;
-            double offset = scale * FIDUCIAL_TO_CONTROL_LINE_OFFSET;
+            double scale = profile.fiducialDistance == 0 ? 1 : diff / profile.fiducialDistance;
+            double offset = scale * profile.fiducialToControlLineOffset;
 
             // Generate a rectangle for the result window
-            Point tl = new Point(midpoint + offset - RESULT_WINDOW_RECT_HEIGHT * scale / 2.0, RESULT_WINDOW_RECT_WIDTH_PADDING);
-            Point br = new Point(midpoint + offset + RESULT_WINDOW_RECT_HEIGHT * scale / 2.0, inputMat.size().height - RESULT_WINDOW_RECT_WIDTH_PADDING);
+            Point tl = new Point(midpoint + offset - profile.resultWindowRectHeight * scale / 2.0, profile.resultWindowRectWidthPadding);
+            Point br = new Point(midpoint + offset + profile.resultWindowRectHeight * scale / 2.0, inputMat.size().height - profile.resultWindowRectWidthPadding);
             fiducialRect = new Rect(tl, br);
         }
 
         // Release resources
-        labels.release();
-        centers.release();
-        data.release();
         threshold.release();
         element_erode.release();
         element_dilate.release();
+        hierarchy.release();
+        for (MatOfPoint contour : contours)
+            contour.release();
 
         return fiducialRect;
     }
 
     private Rect checkFiducialAndReturnResultWindowRect(Mat inputMat)  {
-        if (FIDUCIAL_COUNT == 0) {
-            Point tl = new Point(FIDUCIAL_TO_CONTROL_LINE_OFFSET - RESULT_WINDOW_RECT_HEIGHT / 2.0, RESULT_WINDOW_RECT_WIDTH_PADDING);
-            Point br = new Point(FIDUCIAL_TO_CONTROL_LINE_OFFSET + RESULT_WINDOW_RECT_HEIGHT / 2.0, inputMat.size().height - RESULT_WINDOW_RECT_WIDTH_PADDING);
+        if (profile.fiducialCount == 0) {
+            Point tl = new Point(profile.fiducialToControlLineOffset - profile.resultWindowRectHeight / 2.0, profile.resultWindowRectWidthPadding);
+            Point br = new Point(profile.fiducialToControlLineOffset + profile.resultWindowRectHeight / 2.0, inputMat.size().height - profile.resultWindowRectWidthPadding);
 
             Rect fiducialRect = new Rect(tl, br);
 
@@ -761,8 +1615,8 @@ public class ImageProcessor {
 
             Mat threshold = new Mat(inputMat.rows(), inputMat.cols(), CV_8U, new Scalar(0));
 
-            for (int i = 0; i < CONTROL_LINE_COLOR_LOWER.length; i++) {
-                Core.inRange(hls, CONTROL_LINE_COLOR_LOWER[i], CONTROL_LINE_COLOR_UPPER[i], thresholds[i]);
+            for (int i = 0; i < profile.controlLineColorLower.length; i++) {
+                Core.inRange(hls, profile.controlLineColorLower[i], profile.controlLineColorUpper[i], thresholds[i]);
                 Core.add(threshold, thresholds[i], threshold);
             }
 
@@ -783,14 +1637,14 @@ public class ImageProcessor {
             for (int i = 0; i < contours.size(); i++) {
                 Rect rect = Imgproc.boundingRect(contours.get(i));
                 double rectCenter = rect.x + rect.width / 2.0;
-                if (FIDUCIAL_POSITION_MIN < rectCenter && rectCenter < FIDUCIAL_POSITION_MAX && FIDUCIAL_MIN_HEIGHT < rect.height && FIDUCIAL_MIN_WIDTH < rect.width && rect.width < FIDUCIAL_MAX_WIDTH) {
+                if (profile.fiducialPositionMin < rectCenter && rectCenter < profile.fiducialPositionMax && profile.fiducialMinHeight < rect.height && profile.fiducialMinWidth < rect.width && rect.width < profile.fiducialMaxWidth) {
                     fiducialRects.add(rect);
                     if (DEBUG_FLAG)
                         Log.d(TAG, String.format("Control line rect size: %s %s %s", rect.tl(), rect.br(), rect.size()));
                 }
             }
 
-            if (fiducialRects.size() == FIDUCIAL_COUNT) { //should
+            if (fiducialRects.size() == profile.fiducialCount) { //should
                 double center0 = fiducialRects.get(0).x + fiducialRects.get(0).width / 2.0;
                 double center1 = fiducialRects.get(0).x + fiducialRects.get(0).width / 2.0;
 
@@ -801,16 +1655,16 @@ public class ImageProcessor {
                 int midpoint = (int) ((center0 + center1) / 2);
                 double diff = abs(center0 - center1);
 
-                double scale = FIDUCIAL_DISTANCE == 0 ? 1 : diff / FIDUCIAL_DISTANCE;
-                double offset = scale * FIDUCIAL_TO_CONTROL_LINE_OFFSET;
+                double scale = profile.fiducialDistance == 0 ? 1 : diff / profile.fiducialDistance;
+                double offset = scale * profile.fiducialToControlLineOffset;
 
-                Point tl = new Point(midpoint + offset - RESULT_WINDOW_RECT_HEIGHT * scale / 2.0, RESULT_WINDOW_RECT_WIDTH_PADDING);
-                Point br = new Point(midpoint + offset + RESULT_WINDOW_RECT_HEIGHT * scale / 2.0, inputMat.size().height - RESULT_WINDOW_RECT_WIDTH_PADDING);
+                Point tl = new Point(midpoint + offset - profile.resultWindowRectHeight * scale / 2.0, profile.resultWindowRectWidthPadding);
+                Point br = new Point(midpoint + offset + profile.resultWindowRectHeight * scale / 2.0, inputMat.size().height - profile.resultWindowRectWidthPadding);
 
                 fiducialRect = new Rect(tl, br);
             }
 
-            for (int i = 0; i < CONTROL_LINE_COLOR_LOWER.length; i++) {
+            for (int i = 0; i < profile.controlLineColorLower.length; i++) {
                 thresholds[i].release();
             }
             threshold.release();
@@ -822,62 +1676,43 @@ public class ImageProcessor {
         }
     }
 
-    private boolean readLine(Mat inputMat, Point position, boolean isControlLine) {
-        Mat hls = new Mat();
-        cvtColor(inputMat, hls, Imgproc.COLOR_RGBA2RGB);
-        cvtColor(hls, hls, Imgproc.COLOR_RGB2HLS);
-
-        List<Mat> channels = new ArrayList<>();
-        Core.split(hls, channels);
-
-        int lower_bound = (int)(position.x-LINE_SEARCH_WIDTH < 0 ? 0 : position.x-LINE_SEARCH_WIDTH);
-        int upper_bound = (int)(position.x+LINE_SEARCH_WIDTH);
-        upper_bound = upper_bound > channels.get(1).cols() ? channels.get(1).cols() : upper_bound;
+    /**
+     * Determines whether a line is present from the column profiles of the result window
+     * @param windowProfile: the column profiles of the result window
+     * @param position: the position of the line within the result window
+     * @param isControlLine: whether the line is a control line or a test line
+     * @return whether the line is present
+     */
+    private boolean readLine(ResultWindowProfile windowProfile, Point position, boolean isControlLine) {
+        float[] avgIntensities = windowProfile.getIntensities();
 
-        float[] avgIntensities = new float[upper_bound-lower_bound];
-        float[] avgHues = new float[upper_bound-lower_bound];
-        float[] avgSats = new float[upper_bound-lower_bound];
+        int lower_bound = (int)(position.x-profile.lineSearchWidth < 0 ? 0 : position.x-profile.lineSearchWidth);
+        int upper_bound = (int)(position.x+profile.lineSearchWidth);
+        upper_bound = upper_bound > windowProfile.getWidth() ? windowProfile.getWidth() : upper_bound;
 
         float min = Float.MAX_VALUE, max = Float.MIN_VALUE;
-        int minIndex, maxIndex;
 
         for (int i = lower_bound; i < upper_bound; i++) {
-            float sumIntensity=0;
-            float sumHue=0;
-            float sumSat=0;
-            for (int j = 0; j < channels.get(1).rows(); j++) {
-                sumIntensity+=channels.get(1).get(j, i)[0];
-                sumHue+=channels.get(0).get(j, i)[0];
-                sumSat+=channels.get(2).get(j, i)[0];
-            }
-            avgIntensities[i-lower_bound] = sumIntensity/channels.get(1).rows();
-            avgHues[i-lower_bound] = sumHue/channels.get(0).rows();
-            avgSats[i-lower_bound] = sumSat/channels.get(2).rows();
+            if (avgIntensities[i] < min)
+                min = avgIntensities[i];
 
-            if (avgIntensities[i-lower_bound] < min) {
-                min = avgIntensities[i-lower_bound];
-                minIndex = i-lower_bound;
-            }
-
-            if (avgIntensities[i-lower_bound] > max) {
-                max = avgIntensities[i-lower_bound];
-                maxIndex = i-lower_bound;
-            }
+            if (avgIntensities[i] > max)
+                max = avgIntensities[i];
         }
 
         if (isControlLine) {
-            return min < INTENSITY_THRESHOLD && abs(min-max) > CONTROL_INTENSITY_PEAK_THRESHOLD;
+            return min < profile.intensityThreshold && abs(min-max) > profile.controlIntensityPeakThreshold;
         } else {
-            return min < INTENSITY_THRESHOLD && abs(min-max) > TEST_INTENSITY_PEAK_THRESHOLD;
+            return min < profile.intensityThreshold && abs(min-max) > profile.testIntensityPeakThreshold;
         }
     }
 
-    private boolean readControlLine(Mat inputMat, Point position) {
-        return readLine(inputMat, position, true);
+    private boolean readControlLine(ResultWindowProfile windowProfile, Point position) {
+        return readLine(windowProfile, position, true);
     }
 
-    private boolean readTestLine(Mat inputMat, Point position) {
-        return readLine(inputMat, position, false);
+    private boolean readTestLine(ResultWindowProfile windowProfile, Point position) {
+        return readLine(windowProfile, position, false);
     }
 
 
@@ -928,8 +1763,8 @@ public class ImageProcessor {
         if (correctedMat.width() > 0 && correctedMat.height() > 0) {
             if (DEBUG_FLAG)
                 Log.d(TAG, "Result RECT: " + resultWindowRect.toString());
-            resize(correctedMat, correctedMat, new Size(RESULT_WINDOW_RECT_HEIGHT,
-                    mRefImg.rows()/REF_IMAGE_SCALE - 2*RESULT_WINDOW_RECT_WIDTH_PADDING));
+            resize(correctedMat, correctedMat, new Size(profile.resultWindowRectHeight,
+                    mRefImg.rows()/REF_IMAGE_SCALE - 2*profile.resultWindowRectWidthPadding));
         }
         return correctedMat;
     }
@@ -968,13 +1803,11 @@ public class ImageProcessor {
         }
 
         // Compute matches
-        MatOfDMatch matches = new MatOfDMatch();
-        mMatcher.match(mRefDescriptor, descriptors, matches);
+        List<DMatch> matchesList = mMatcher.match(descriptors);
         if (DEBUG_FLAG)
             Log.d(TAG, "matching TIME: " + (System.currentTimeMillis()-startTime));
 
         // Sort matches from lowest to highest distance
-        List<DMatch> matchesList = matches.toList();
         Comparator<DMatch> comparator = new Comparator<DMatch>() {
             @Override
             public int compare(DMatch dMatch, DMatch t1) {
@@ -1083,7 +1916,6 @@ public class ImageProcessor {
         descriptors.release();
         keypoints.release();
         mask.release();
-        matches.release();
         objMat.release();
         sceneMat.release();
         H.release();
@@ -1092,6 +1924,43 @@ public class ImageProcessor {
         return boundary;
     }
 
+    /**
+     * Attempts to identify the bounding box around the RDT within the input image, following the
+     * RDT from the previous frame with optical flow when tracking is enabled and only falling back
+     * to full SIFT detection when tracking is lost
+     * @param scaledMat: the downsampled frame from scaleFrame
+     * @param geometry: the cached geometry for the frame's size
+     * @param ransac: the ransac reprojection error threshold
+     * @return boundary: the MatOfPoint2f bounding box around the identified RDT
+     */
+    private MatOfPoint2f locateRDT(Mat scaledMat, FrameGeometry geometry, int ransac) {
+        // Initialize data structures and start timer
+        double startTime = System.currentTimeMillis();
+        Mat croppedMat = scaledMat.submat(geometry.siftRoi);
+        MatOfPoint2f boundary = null;
+
+        // Follow the RDT from the previous frame if possible
+        if (trackingEnabled && featureTracker.isTracking()) {
+            Mat H = featureTracker.track(croppedMat, ransac);
+            if (H != null) {
+                boundary = boundaryFromHomography(H, geometry.siftRoi.tl());
+                H.release();
+            }
+            if (DEBUG_FLAG)
+                Log.d(TAG, String.format("Tracking %s, TIME: %.0f", boundary != null ? "held" : "lost",
+                        System.currentTimeMillis()-startTime));
+        }
+
+        // Otherwise run the full detection and start tracking from it
+        if (boundary == null && detectionCancelled)
+            boundary = new MatOfPoint2f();
+        if (boundary == null)
+            boundary = detectRDTWithSIFT(croppedMat, geometry.siftRoi.tl(), geometry.siftMask, ransac, trackingEnabled);
+
+        croppedMat.release();
+        return boundary;
+    }
+
     /**
      * Attempts to identify the bounding box around the RDT within the input image using SIFT, if it is there
      * @param inputMat: the input image
@@ -1099,167 +1968,234 @@ public class ImageProcessor {
      * @return boundary: the MatOfPoint2f bounding box around the identified RDT
      */
     private MatOfPoint2f detectRDTWithSIFT(Mat inputMat, int ransac) {
+        FrameGeometry geometry = getFrameGeometry(inputMat.size());
+        Mat croppedMat = scaleAndCropForFeatures(inputMat, geometry);
+        MatOfPoint2f boundary = detectRDTWithSIFT(croppedMat, geometry.siftRoi.tl(), geometry.siftMask, ransac, false);
+        croppedMat.release();
+        return boundary;
+    }
+
+    /**
+     * Downsamples the input image and crops it to the region where features are generated
+     * @param inputMat: the input image
+     * @param geometry: the cached geometry for the input image's size
+     * @return a submat of a pooled Mat; the caller should release the submat header only
+     */
+    private Mat scaleAndCropForFeatures(Mat inputMat, FrameGeometry geometry) {
+        return scaleFrame(inputMat, geometry).submat(geometry.siftRoi);
+    }
+
+    /**
+     * Downsamples the input image by FRAME_IMAGE_SCALE
+     * @param inputMat: the input image
+     * @param geometry: the cached geometry for the input image's size
+     * @return a pooled Mat that must not be released
+     */
+    private Mat scaleFrame(Mat inputMat, FrameGeometry geometry) {
+        Mat scaledMat = matPool.get("sift.scaled");
+        Imgproc.resize(inputMat, scaledMat, geometry.scaledSize, 0, 0, Imgproc.INTER_LINEAR);
+        return scaledMat;
+    }
+
+    /**
+     * Attempts to identify the bounding box around the RDT within the downsampled, cropped image using SIFT
+     * @param croppedMat: the downsampled image cropped to the feature region
+     * @param tl: the top-left corner of the feature region within the downsampled image
+     * @param mask: the mask for where to generate features
+     * @param ransac: the ransac reprojection error threshold
+     * @param seedTracker: whether a successful detection should seed the feature tracker
+     * @return boundary: the MatOfPoint2f bounding box around the identified RDT
+     */
+    private MatOfPoint2f detectRDTWithSIFT(Mat croppedMat, Point tl, Mat mask, int ransac, boolean seedTracker) {
         // Initialize data structures and start timer
         double startTime = System.currentTimeMillis();
-        Mat inDescriptor = new Mat();
-        MatOfKeyPoint inKeypoints = new MatOfKeyPoint();
-        MatOfPoint2f boundary = new MatOfPoint2f();
+        MatchedPoints matchedPoints = matchSIFTFeatures(croppedMat, mask);
+        if (matchedPoints == null)
+            return new MatOfPoint2f();
 
-        // Downsample the image to save time
-        Mat scaledMat = new Mat();
-        Imgproc.resize(inputMat, scaledMat, new Size(), FRAME_IMAGE_SCALE, FRAME_IMAGE_SCALE, Imgproc.INTER_LINEAR);
+        MatOfPoint2f boundary = boundaryFromMatches(matchedPoints, tl, ransac, seedTracker ? croppedMat : null);
+        matchedPoints.release();
+        if (DEBUG_FLAG)
+            Log.d(TAG, "Detect RDT TIME: " + (System.currentTimeMillis()-startTime));
+        return boundary;
+    }
 
-        // Create a mask for where to generate features
-        // TODO: can we make this tighter regardless of OpenCV's bug?
-        Point tl = new Point(scaledMat.size().height*(1-VIEW_FINDER_SCALE_W/CROP_RATIO)/2, 0);
-        Point br = new Point(scaledMat.size().width-tl.x, scaledMat.height());
-        Rect roi = new Rect(tl, br);
-        Mat croppedMat = scaledMat.submat(roi);
+    /**
+     * The reference and frame locations of the good SIFT matches for a single frame
+     */
+    private static class MatchedPoints {
+        final MatOfPoint2f objMat = new MatOfPoint2f();
+        final MatOfPoint2f sceneMat = new MatOfPoint2f();
+
+        void release() {
+            objMat.release();
+            sceneMat.release();
+        }
+    }
 
-        Mat mask = new Mat(croppedMat.cols(), croppedMat.rows(), CV_8U, new Scalar(0));
-        Point p1 = new Point(0, croppedMat.size().height*(1-VIEW_FINDER_SCALE_W/CROP_RATIO)/2);
-        Point p2 = new Point(croppedMat.size().width-p1.x, croppedMat.size().height-p1.y);
-        Imgproc.rectangle(mask, p1, p2, new Scalar(255), -1);
+    /**
+     * Computes SIFT features on the downsampled, cropped image and matches them against the reference
+     * @param croppedMat: the downsampled image cropped to the feature region
+     * @param mask: the mask for where to generate features
+     * @return the locations of the good matches, or null if there are not enough of them
+     */
+    private MatchedPoints matchSIFTFeatures(Mat croppedMat, Mat mask) {
+        Mat inDescriptor = matPool.get("sift.descriptors");
+        MatOfKeyPoint inKeypoints = matPool.getKeyPoints("sift.keypoints");
 
         // Compute features and descriptors
+        long startTime = System.nanoTime();
         siftDetector.detectAndCompute(croppedMat, mask, inKeypoints, inDescriptor);
+        latencies.record(CaptureStage.FEATURE_DETECTION, System.nanoTime() - startTime);
 
-        // Break early if no features found
-        if (inDescriptor.size().equals(new Size(0,0)) ||
+        // Break early if no features found or the frame has already failed another check
+        if (detectionCancelled || inDescriptor.size().equals(new Size(0,0)) ||
                 siftRefDescriptor.size().equals(new Size(0,0))) {
-            inDescriptor.release();
-            inKeypoints.release();
-            scaledMat.release();
-            croppedMat.release();
-            mask.release();
-            return boundary;
+            return null;
         }
 
-        // Compute matches
-        List<MatOfDMatch> matches = new ArrayList<>();
-        siftMatcher.knnMatch(siftRefDescriptor, inDescriptor, matches, 2, new Mat(), false);
-
-        // Save only the good matches
-        ArrayList<DMatch> goodMatches = new ArrayList<>();
-        for (int i = 0; i < matches.size(); i++) {
-            DMatch[] dMatches = matches.get(i).toArray();
-            if (dMatches.length >= 2) {
-                DMatch m = dMatches[0];
-                DMatch n = dMatches[1];
-                if (m.distance <= 0.80 * n.distance) {
-                    goodMatches.add(m);
-                }
-            }
-        }
-        MatOfDMatch goodMatchesMat = new MatOfDMatch();
-        goodMatchesMat.fromList(goodMatches);
+        // Compute matches and save only the good ones
+        startTime = System.nanoTime();
+        List<DMatch> goodMatches = siftMatcher.knnMatch(inDescriptor, 0.80f);
+        latencies.record(CaptureStage.MATCHING, System.nanoTime() - startTime);
 
         // Break early if not enough good matches
         if (goodMatches.size() <= GOOD_MATCH_COUNT) {
-            inDescriptor.release();
-            inKeypoints.release();
-            scaledMat.release();
-            croppedMat.release();
-            mask.release();
-            goodMatchesMat.release();
-            return boundary;
+            return null;
         }
 
-        // Put KeyPoints from Mats into Lists
-        List<KeyPoint> keypointsList1 = siftRefKeypoints.toList();
-        List<KeyPoint> keypointsList2 = inKeypoints.toList();
-
         // Put Points from good matches into MatOfPoint2f
+        MatchedPoints matchedPoints = new MatchedPoints();
+        pointsFromMatches(goodMatches, inKeypoints.toList(), matchedPoints.objMat, matchedPoints.sceneMat);
+        return matchedPoints;
+    }
+
+    /**
+     * Estimates the homography from a set of matches and maps the reference image's corners through it.
+     * This is cheap compared to matchSIFTFeatures, so it can be retried with different thresholds.
+     * @param matchedPoints: the locations of the good matches
+     * @param tl: the top-left corner of the feature region within the downsampled image
+     * @param ransac: the ransac reprojection error threshold
+     * @param trackerFrame: the frame to seed the feature tracker with on success, or null to leave it alone
+     * @return boundary: the MatOfPoint2f bounding box around the identified RDT, empty if the homography is invalid
+     */
+    private MatOfPoint2f boundaryFromMatches(MatchedPoints matchedPoints, Point tl, int ransac, Mat trackerFrame) {
+        MatOfPoint2f boundary;
+
+        // Compute homography
+        long startTime = System.nanoTime();
+        Mat inlierMask = new Mat();
+        Mat H = Calib3d.findHomography(matchedPoints.objMat, matchedPoints.sceneMat, Calib3d.RANSAC, ransac,
+                inlierMask, 2000, 0.995);
+        latencies.record(CaptureStage.HOMOGRAPHY, System.nanoTime() - startTime);
+
+        // If the homography is valid, map corners of template into input image
+        if (H.cols() >= 3 && H.rows() >= 3) {
+            boundary = boundaryFromHomography(H, tl);
+            if (trackerFrame != null)
+                featureTracker.seed(trackerFrame, matchedPoints.objMat, matchedPoints.sceneMat, inlierMask);
+        } else {
+            boundary = new MatOfPoint2f();
+        }
+
+        // Release resources
+        inlierMask.release();
+        H.release();
+        return boundary;
+    }
+
+    /**
+     * Collects the reference and frame keypoint locations of each SIFT match
+     * @param goodMatches: the matches, with queryIdx into the reference keypoints and trainIdx into the frame keypoints
+     * @param frameKeypoints: the keypoints detected on the frame
+     * @param objMat: receives the reference keypoint locations
+     * @param sceneMat: receives the frame keypoint locations
+     */
+    private void pointsFromMatches(List<DMatch> goodMatches, List<KeyPoint> frameKeypoints,
+                                   MatOfPoint2f objMat, MatOfPoint2f sceneMat) {
+        List<KeyPoint> refKeypoints = siftRefKeypoints.toList();
         List<Point> objList = new ArrayList<>();
         List<Point> sceneList = new ArrayList<>();
         for(int i = 0; i < goodMatches.size(); i++) {
             DMatch m = goodMatches.get(i);
-            objList.add(keypointsList1.get(m.queryIdx).pt);
-            sceneList.add(keypointsList2.get(m.trainIdx).pt);
+            objList.add(refKeypoints.get(m.queryIdx).pt);
+            sceneList.add(frameKeypoints.get(m.trainIdx).pt);
         }
-        MatOfPoint2f objMat = new MatOfPoint2f();
-        MatOfPoint2f sceneMat = new MatOfPoint2f();
         objMat.fromList(objList);
         sceneMat.fromList(sceneList);
+    }
 
-        // Compute homography
-        Mat H = Calib3d.findHomography(objMat, sceneMat, Calib3d.RANSAC, ransac);
-
-        // If the homography is valid, map corners of template into input image
-        if (H.cols() >= 3 && H.rows() >= 3) {
-            // Get template corners
-            Mat objCorners = new Mat(4, 1, CvType.CV_32FC2);
-            double[] a = new double[]{0, 0};
-            double[] b = new double[]{mRefImg.cols() - 1, 0};
-            double[] c = new double[]{mRefImg.cols() - 1, mRefImg.rows() - 1};
-            double[] d = new double[]{0, mRefImg.rows() - 1};
-            objCorners.put(0, 0, a);
-            objCorners.put(1, 0, b);
-            objCorners.put(2, 0, c);
-            objCorners.put(3, 0, d);
-
-            // Apply transform to get corresponding corners in input image
-            Mat sceneCorners = new Mat(4, 1, CvType.CV_32FC2);
-            perspectiveTransform(objCorners, sceneCorners, H);
-            if (DEBUG_FLAG)
-                Log.d(TAG, String.format("transformed -- SIFT: (%.2f, %.2f) (%.2f, %.2f) (%.2f, %.2f) (%.2f, %.2f), width: %d, height: %d",
-                        sceneCorners.get(0, 0)[0], sceneCorners.get(0, 0)[1],
-                        sceneCorners.get(1, 0)[0], sceneCorners.get(1, 0)[1],
-                        sceneCorners.get(2, 0)[0], sceneCorners.get(2, 0)[1],
-                        sceneCorners.get(3, 0)[0], sceneCorners.get(3, 0)[1], sceneCorners.width(), sceneCorners.height()));
-
-            // Extract those points
-            ArrayList<Point> listOfBoundary = new ArrayList<>();
-            listOfBoundary.add(new Point(sceneCorners.get(0, 0)));
-            listOfBoundary.add(new Point(sceneCorners.get(1, 0)));
-            listOfBoundary.add(new Point(sceneCorners.get(2, 0)));
-            listOfBoundary.add(new Point(sceneCorners.get(3, 0)));
-            boundary.fromList(listOfBoundary);
+    /**
+     * Maps the reference image's corners into the input image with a homography
+     * @param H: the homography from the reference image to the downsampled, cropped image
+     * @param tl: the top-left corner of the feature region within the downsampled image
+     * @return boundary: the MatOfPoint2f bounding box around the RDT in the full resolution image
+     */
+    private MatOfPoint2f boundaryFromHomography(Mat H, Point tl) {
+        // Get template corners
+        Mat objCorners = new Mat(4, 1, CvType.CV_32FC2);
+        double[] a = new double[]{0, 0};
+        double[] b = new double[]{mRefImg.cols() - 1, 0};
+        double[] c = new double[]{mRefImg.cols() - 1, mRefImg.rows() - 1};
+        double[] d = new double[]{0, mRefImg.rows() - 1};
+        objCorners.put(0, 0, a);
+        objCorners.put(1, 0, b);
+        objCorners.put(2, 0, c);
+        objCorners.put(3, 0, d);
+
+        // Apply transform to get corresponding corners in input image
+        Mat sceneCorners = new Mat(4, 1, CvType.CV_32FC2);
+        perspectiveTransform(objCorners, sceneCorners, H);
+        if (DEBUG_FLAG)
+            Log.d(TAG, String.format("transformed -- SIFT: (%.2f, %.2f) (%.2f, %.2f) (%.2f, %.2f) (%.2f, %.2f), width: %d, height: %d",
+                    sceneCorners.get(0, 0)[0], sceneCorners.get(0, 0)[1],
+                    sceneCorners.get(1, 0)[0], sceneCorners.get(1, 0)[1],
+                    sceneCorners.get(2, 0)[0], sceneCorners.get(2, 0)[1],
+                    sceneCorners.get(3, 0)[0], sceneCorners.get(3, 0)[1], sceneCorners.width(), sceneCorners.height()));
+
+        // Extract those points
+        ArrayList<Point> listOfBoundary = new ArrayList<>();
+        listOfBoundary.add(new Point(sceneCorners.get(0, 0)));
+        listOfBoundary.add(new Point(sceneCorners.get(1, 0)));
+        listOfBoundary.add(new Point(sceneCorners.get(2, 0)));
+        listOfBoundary.add(new Point(sceneCorners.get(3, 0)));
+        MatOfPoint2f boundary = new MatOfPoint2f();
+        boundary.fromList(listOfBoundary);
 
-            // Release resources
-            objCorners.release();
-            sceneCorners.release();
+        // Release resources
+        objCorners.release();
+        sceneCorners.release();
 
-            // Properly orders the points depending on the orientation and
-            // scales the points back to the original image's size
-            RotatedRect rotatedRect = minAreaRect(boundary);
-            Point[] v = new Point[4];
-            Point[] bound = new Point[4];
-            rotatedRect.points(v);
-            for (int i = 0; i < 4; i++) {
-                if (rotatedRect.angle < -45)
-                    bound[(i+2) % 4] = new Point((v[i].x+tl.x)/FRAME_IMAGE_SCALE, v[i].y/FRAME_IMAGE_SCALE);
-                else
-                    bound[(i+3) % 4] = new Point((v[i].x+tl.x)/FRAME_IMAGE_SCALE, v[i].y/FRAME_IMAGE_SCALE);
-            }
-            boundary.fromArray(bound);
+        // Properly orders the points depending on the orientation and
+        // scales the points back to the original image's size
+        RotatedRect rotatedRect = minAreaRect(boundary);
+        Point[] v = new Point[4];
+        Point[] bound = new Point[4];
+        rotatedRect.points(v);
+        for (int i = 0; i < 4; i++) {
+            if (rotatedRect.angle < -45)
+                bound[(i+2) % 4] = new Point((v[i].x+tl.x)/FRAME_IMAGE_SCALE, v[i].y/FRAME_IMAGE_SCALE);
+            else
+                bound[(i+3) % 4] = new Point((v[i].x+tl.x)/FRAME_IMAGE_SCALE, v[i].y/FRAME_IMAGE_SCALE);
         }
-
-        // Release resources
-        inKeypoints.release();
-        inDescriptor.release();
-        scaledMat.release();
-        croppedMat.release();
-        mask.release();
-        goodMatchesMat.release();
-        objMat.release();
-        sceneMat.release();
-        H.release();
-        if (DEBUG_FLAG)
-            Log.d(TAG, "Detect RDT TIME: " + (System.currentTimeMillis()-startTime));
+        boundary.fromArray(bound);
         return boundary;
     }
 
     /**
-     * Generates a bounding box Rect based on the viewfinder window specifications
-     * @param inputMat: the input image
-     * @return a Rect object describing the viewfinder
+     * Provides the cached viewfinder/SIFT geometry, recomputing it only when the frame size changes
+     * @param size: the size of the input frame
+     * @return a FrameGeometry object describing the regions of interest for that size
      */
-    private Rect getViewfinderRect(Mat inputMat) {
-        Point p1 = new Point(inputMat.size().width*(1-VIEW_FINDER_SCALE_H)/2,
-                inputMat.size().height*(1-VIEW_FINDER_SCALE_W)/2);
-        Point p2 = new Point(inputMat.size().width-p1.x, inputMat.size().height-p1.y);
-        return new Rect(p1, p2);
+    private synchronized FrameGeometry getFrameGeometry(Size size) {
+        if (frameGeometry == null || !frameGeometry.matches(size)) {
+            if (frameGeometry != null)
+                frameGeometry.release();
+            frameGeometry = new FrameGeometry(size);
+            updateRefSharpness(frameGeometry);
+            featureTracker.reset();
+        }
+        return frameGeometry;
     }
 
     //methods for debugging
@@ -1369,10 +2305,10 @@ public class ImageProcessor {
         refPoints.put(2, 0, c);
         refPoints.put(3, 0, d);
 
-        a = new double[]{RESULT_WINDOW_X, RESULT_WINDOW_Y};
-        b = new double[]{RESULT_WINDOW_X+RESULT_WINDOW_WIDTH, RESULT_WINDOW_Y};
-        c = new double[]{RESULT_WINDOW_X+RESULT_WINDOW_WIDTH, RESULT_WINDOW_Y+RESULT_WINDOW_HEIGHT};
-        d = new double[]{RESULT_WINDOW_X, RESULT_WINDOW_Y+RESULT_WINDOW_HEIGHT};
+        a = new double[]{profile.resultWindowX, profile.resultWindowY};
+        b = new double[]{profile.resultWindowX+profile.resultWindowWidth, profile.resultWindowY};
+        c = new double[]{profile.resultWindowX+profile.resultWindowWidth, profile.resultWindowY+profile.resultWindowHeight};
+        d = new double[]{profile.resultWindowX, profile.resultWindowY+profile.resultWindowHeight};
 
         refResultPoints.put(0, 0, a);
         refResultPoints.put(1, 0, b);
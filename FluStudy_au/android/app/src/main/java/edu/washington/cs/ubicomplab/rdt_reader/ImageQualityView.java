@@ -31,7 +31,6 @@ import android.hardware.camera2.params.MeteringRectangle;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.support.annotation.NonNull;
@@ -54,7 +53,6 @@ import android.widget.Toast;
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 
-import org.opencv.core.Mat;
 
 import java.util.Arrays;
 
@@ -69,7 +67,7 @@ import static edu.washington.cs.ubicomplab.rdt_reader.Constants.*;
 
 
 public class ImageQualityView extends LinearLayout implements View.OnClickListener, ActivityCompat.OnRequestPermissionsResultCallback {
-    private ImageProcessor processor;
+    private volatile ImageProcessor processor;
     private Activity mActivity;
     private TextView mImageQualityFeedbackView;
     private TextView mProgressText;
@@ -82,6 +80,10 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
     private boolean showFeedback;
     private boolean flashEnabled = true;
 
+    // The sharpness and brightness lines last shown, kept while those checks are not running
+    private String mSharpnessCheckText = "Sharpness: not checked";
+    private String mExposureCheckText = "Brightness: not checked";
+
     private long timeTaken = 0;
 
     private ViewportUsingBitmap mViewport;
@@ -131,6 +133,8 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
 
         initViews();
 
+        // Warm up the processor in the background; frames are skipped until it is ready
+        ImageProcessor.initAsync(mActivity, mProcessorReadyListener);
     }
 
     public boolean isExternalIntent() {
@@ -291,10 +295,42 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
      * An {@link ImageReader} that handles still image capture.
      */
     private ImageReader mImageReader;
+    /**
+     * The chroma layout of the images from {@link #mImageReader}
+     */
+    private ImageUtil.ChromaLayout mChromaLayout = new ImageUtil.ChromaLayout();
 
     final Object focusStateLock = new Object();
 
-    final BlockingQueue<Image> imageQueue = new ArrayBlockingQueue<>(1);
+    /**
+     * Frames are converted on the image-available thread and analyzed on the scheduler's
+     * thread, so the next frame is copied out of the camera while the previous one is checked.
+     * The pool bounds the frames in flight: one being converted, one waiting and one being analyzed.
+     */
+    private final BlockingQueue<ImageUtil.YuvFrame> mFramePool = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+    private int mFramesAllocated = 0;
+
+    /**
+     * Runs the capture checks on one frame at a time on a persistent thread. A frame that
+     * arrives while another is being processed waits in a single slot, where the drop
+     * policy decides whether it replaces the frame already waiting there.
+     */
+    private final FrameScheduler<ImageUtil.YuvFrame> mFrameScheduler = new FrameScheduler<>("FrameProcessing",
+            FRAME_DROP_POLICY, new FrameScheduler.FrameHandler<ImageUtil.YuvFrame>() {
+        @Override
+        public void onFrame(ImageUtil.YuvFrame frame) {
+            try {
+                processFrame(frame);
+            } finally {
+                mFramePool.offer(frame);
+            }
+        }
+
+        @Override
+        public void onDrop(ImageUtil.YuvFrame frame) {
+            mFramePool.offer(frame);
+        }
+    });
 
     /**
      * This a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
@@ -315,7 +351,7 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
                 return;
             }
 
-            if (imageQueue.size() > 0) {
+            if (processor == null) {
                 image.close();
                 return;
             }
@@ -326,81 +362,84 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
                 return;
             }
 
-            imageQueue.add(image);
-            new ImageProcessAsyncTask().execute(image);
+            // Copy the frame out so the camera buffer is returned right away
+            ImageUtil.YuvFrame frame = mFramePool.poll();
+            if (frame == null && mFramesAllocated < PIPELINE_DEPTH) {
+                frame = new ImageUtil.YuvFrame();
+                mFramesAllocated++;
+            }
+            if (frame == null) {
+                image.close();
+                return;
+            }
+            long startTime = System.nanoTime();
+            ImageUtil.imageToYuvFrame(image, frame, mChromaLayout);
+            image.close();
+            processor.recordLatency(CaptureStage.CONVERSION, System.nanoTime() - startTime);
+            mFrameScheduler.offer(frame);
         }
 
     };
 
-    private class ImageProcessAsyncTask extends AsyncTask<Image, Void, Void> {
-
-        @Override
-        protected Void doInBackground(Image... images) {
-            Image image = images[0];
-            final Mat rgbaMat = ImageUtil.imageToRGBMat(image);
-            final ImageProcessor.CaptureResult captureResult = processor.captureRDT(rgbaMat);
-            //ImageProcessor.SizeResult sizeResult, boolean isCentered, boolean isRightOrientation, boolean isSharp, ImageProcessor.ExposureResult exposureResult
-            mActivity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    displayQualityResult(captureResult.sizeResult, captureResult.isCentered, captureResult.isRightOrientation, captureResult.isSharp, captureResult.exposureResult);
-                }
-            });
-
-            Log.d(TAG, String.format("Capture time: %d", System.currentTimeMillis() - timeTaken));
-            Log.d(TAG, String.format("Captured result: %b", captureResult.allChecksPassed));
-
-            ImageProcessor.InterpretationResult interpretationResult = null;
-            if (captureResult.allChecksPassed) {
-                Log.d(TAG, String.format("Captured MAT size: %s", captureResult.resultMat.size()));
-                if (mImageQualityViewListener != null) {
-                    mImageQualityViewListener.onRDTInterpreting(System.currentTimeMillis() - timeTaken);
-                }
-                try {
-                    mCameraOpenCloseLock.acquire();
-                    if (null != mCaptureSession) {
-                        mCaptureSession.stopRepeating();
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (CameraAccessException e) {
-                    e.printStackTrace();
-                } finally {
-                    mCameraOpenCloseLock.release();
-                }
-
-                //interpretation
-                interpretationResult = processor.interpretResult(captureResult.resultMat, captureResult.boundary);
-                image.close();
-            } else {
-                imageQueue.remove();
-                image.close();
+    private void processFrame(ImageUtil.YuvFrame yuvFrame) {
+        // Checks run on the luminance plane; only a passing RDT is converted to color
+        final ImageProcessor.CaptureResult captureResult = processor.captureRDT(yuvFrame.mat, yuvFrame.getRGBAConversion());
+        //ImageProcessor.SizeResult sizeResult, boolean isCentered, boolean isRightOrientation, boolean isSharp, ImageProcessor.ExposureResult exposureResult
+        mActivity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                displayQualityResult(captureResult);
             }
-            rgbaMat.release();
+        });
 
-            RDTDectedResult result = RDTDectedResult.CONTINUE;
+        Log.d(TAG, String.format("Capture time: %d", System.currentTimeMillis() - timeTaken));
+        Log.d(TAG, String.format("Captured result: %b", captureResult.allChecksPassed));
+
+        ImageProcessor.InterpretationResult interpretationResult = null;
+        if (captureResult.allChecksPassed) {
+            // Stop taking frames once the RDT has been captured
+            mFrameScheduler.pause();
+            Log.d(TAG, String.format("Captured MAT size: %s", captureResult.resultMat.size()));
             if (mImageQualityViewListener != null) {
-                result = mImageQualityViewListener.onRDTDetected(
-                        captureResult,
-                        interpretationResult,
-                        System.currentTimeMillis() - timeTaken
-                );
-            }
-            if (captureResult.resultMat != null) {
-                captureResult.resultMat.release();
+                mImageQualityViewListener.onRDTInterpreting(System.currentTimeMillis() - timeTaken);
             }
-            if (captureResult.croppedRDTMat != null) {
-                captureResult.croppedRDTMat.release();
-            }
-            if (interpretationResult != null &&
-                    interpretationResult.resultMat != null) {
-                interpretationResult.resultMat.release();
-            }
-            if (result == RDTDectedResult.STOP) {
-                mOnImageAvailableThread.interrupt();
+            try {
+                mCameraOpenCloseLock.acquire();
+                if (null != mCaptureSession) {
+                    mCaptureSession.stopRepeating();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            } finally {
+                mCameraOpenCloseLock.release();
             }
 
-            return null;
+            //interpretation
+            interpretationResult = processor.interpretResult(captureResult.resultMat, captureResult.boundary);
+        }
+
+        RDTDectedResult result = RDTDectedResult.CONTINUE;
+        if (mImageQualityViewListener != null) {
+            result = mImageQualityViewListener.onRDTDetected(
+                    captureResult,
+                    interpretationResult,
+                    System.currentTimeMillis() - timeTaken
+            );
+        }
+        if (captureResult.resultMat != null) {
+            captureResult.resultMat.release();
+        }
+        if (captureResult.croppedRDTMat != null) {
+            captureResult.croppedRDTMat.release();
+        }
+        if (interpretationResult != null &&
+                interpretationResult.resultMat != null) {
+            interpretationResult.resultMat.release();
+        }
+        if (result == RDTDectedResult.STOP) {
+            mOnImageAvailableThread.interrupt();
         }
     }
 
@@ -520,6 +559,9 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
     public void onPause() {
         closeCamera();
         stopBackgroundThread();
+        if (processor != null) {
+            processor.stopQualityWorkers();
+        }
     }
 
     @Override
@@ -584,6 +626,7 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
                 mPreviewSize = closestPreviewSize;
                 mImageReader = ImageReader.newInstance(closestImageSize.getWidth(), closestImageSize.getHeight(),
                         ImageFormat.YUV_420_888, /*maxImages*/5);
+                mChromaLayout = new ImageUtil.ChromaLayout();
                 mImageReader.setOnImageAvailableListener(
                         mOnImageAvailableListener, mOnImageAvailableHandler);
 
@@ -681,6 +724,8 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
         mOnImageAvailableThread = new HandlerThread("OnImageAvailableBackgroud");
         mOnImageAvailableThread.start();
         mOnImageAvailableHandler = new Handler(mOnImageAvailableThread.getLooper());
+
+        mFrameScheduler.start();
     }
 
     /**
@@ -688,6 +733,7 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
      */
     private void stopBackgroundThread() {
         Log.d(TAG, "Thread Quit Safely.");
+        mFrameScheduler.stop();
         mBackgroundThread.quit();
         mOnImageAvailableThread.quit();
         try {
@@ -859,13 +905,25 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
      **/
 
 
+    private final ImageProcessor.OnReadyListener mProcessorReadyListener = new ImageProcessor.OnReadyListener() {
+        @Override
+        public void onReady(ImageProcessor imageProcessor) {
+            processor = imageProcessor;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            Log.e(TAG, "Unable to initialize the image processor", error);
+        }
+    };
+
     private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(mActivity) {
         @Override
         public void onManagerConnected(int status) {
             switch (status) {
                 case LoaderCallbackInterface.SUCCESS: {
                     Log.i(TAG, "OpenCV loaded successfully");
-                    processor = ImageProcessor.getInstance(mActivity);
+                    ImageProcessor.initAsync(mActivity, mProcessorReadyListener);
                 }
                 break;
                 default: {
@@ -949,7 +1007,7 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
 
     }
 
-    private void displayQualityResult(ImageProcessor.SizeResult sizeResult, boolean isCentered, boolean isRightOrientation, boolean isSharp, ImageProcessor.ExposureResult exposureResult) {
+    private void displayQualityResult(ImageProcessor.CaptureResult captureResult) {
         if (!showFeedback) {
             return;
         }
@@ -961,10 +1019,23 @@ public class ImageQualityView extends LinearLayout implements View.OnClickListen
         }
 
         if (currFocusState == FocusState.FOCUSED) {
-            String[] qChecks = processor.getQualityCheckText(sizeResult, isCentered, isRightOrientation, isSharp, exposureResult);
+            String[] qChecks = processor.getQualityCheckText(captureResult.sizeResult, captureResult.isCentered,
+                    captureResult.isRightOrientation, captureResult.isSharp, captureResult.exposureResult);
+            // A check that did not run on this frame keeps its last reading
+            if (captureResult.sharpnessChecked) {
+                mSharpnessCheckText = qChecks[0];
+            } else {
+                qChecks[0] = mSharpnessCheckText;
+            }
+            if (captureResult.exposureChecked) {
+                mExposureCheckText = qChecks[1];
+            } else {
+                qChecks[1] = mExposureCheckText;
+            }
             String message = String.format(getResources().getString(R.string.quality_msg_format_text), qChecks[0], qChecks[1], qChecks[2], qChecks[3]);
 
-            mInstructionText.setText(getResources().getText(processor.getInstructionText(sizeResult, isCentered, isRightOrientation)));
+            mInstructionText.setText(getResources().getText(processor.getInstructionText(captureResult.sizeResult,
+                    captureResult.isCentered, captureResult.isRightOrientation)));
 
             mImageQualityFeedbackView.setText(Html.fromHtml(message));
         } else if (currFocusState == FocusState.INACTIVE) {
@@ -69,66 +69,292 @@ public final class ImageUtil {
         return out.toByteArray();
     }
 
+    /**
+     * A reusable single-channel Mat holding a YUV_420_888 frame laid out for one cvtColor
+     * call: the Y plane followed by interleaved chroma (NV21 or NV12) when the camera
+     * delivers it that way, or by the U and V planes (I420) otherwise.
+     */
+    public static final class YuvFrame {
+        public final Mat mat = new Mat();
+        private byte[] data = new byte[0];
+        private byte[] rowData = new byte[0];
+        private int layout = Imgproc.COLOR_YUV2RGBA_I420;
+
+        /**
+         * @return the cvtColor code that converts this frame to RGBA
+         */
+        public int getRGBAConversion() {
+            return layout;
+        }
+    }
+
+    /**
+     * The chroma layout of the images from one ImageReader. It is decided from the plane
+     * contract of the first image that tells NV21, NV12 and planar chroma apart, then reused
+     * for every later image without looking at the pixels again.
+     */
+    public static final class ChromaLayout {
+        private static final int UNDECIDED = -1;
+
+        private int conversion = UNDECIDED;
+    }
+
+    private static final ThreadLocal<YuvFrame> yuvFrames = new ThreadLocal<YuvFrame>() {
+        @Override
+        protected YuvFrame initialValue() {
+            return new YuvFrame();
+        }
+    };
+
+    /**
+     * Converts a YUV_420_888 image to RGBA with a single color conversion
+     * @param image: the camera image, which is closed once it has been copied
+     * @return a new RGBA Mat
+     */
     public static Mat imageToRGBMat(Image image) {
-        Mat yuvMat = imageToMat(image);
-        Mat bgrMat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC4);
+        YuvFrame frame = imageToYuvFrame(image, yuvFrames.get(), new ChromaLayout());
         image.close();
-        Imgproc.cvtColor(yuvMat, bgrMat, Imgproc.COLOR_YUV2BGR_I420);
         Mat rgbaMat = new Mat();
-        Imgproc.cvtColor(bgrMat, rgbaMat, Imgproc.COLOR_BGR2RGBA, 0);
+        Imgproc.cvtColor(frame.mat, rgbaMat, frame.getRGBAConversion());
+        return rgbaMat;
+    }
 
-        yuvMat.release();
-        bgrMat.release();
+    /**
+     * Copies a YUV_420_888 image into a reusable frame. Each plane is copied with bulk
+     * reads, and interleaved chroma is kept interleaved instead of being unpacked.
+     * @param image: the camera image
+     * @param frame: the frame to fill; its buffers are reused when the size does not change
+     * @param chromaLayout: the layout of the reader the image came from; decided on this image
+     *                    if it is not decided yet
+     * @return the filled frame
+     */
+    public static YuvFrame imageToYuvFrame(Image image, YuvFrame frame, ChromaLayout chromaLayout) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int ySize = width * height;
+        int size = ySize + 2 * (width / 2) * (height / 2);
+        if (frame.data.length != size)
+            frame.data = new byte[size];
+
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(planes[0], width, height, frame.data, 0, frame);
+
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (chromaLayout.conversion == ChromaLayout.UNDECIDED)
+            chromaLayout.conversion = decideChromaLayout(planes[1], planes[2]);
+
+        if (chromaLayout.conversion == Imgproc.COLOR_YUV2RGBA_NV21) {
+            copyInterleavedChroma(planes[2], planes[1], chromaWidth, chromaHeight, frame.data, ySize);
+            frame.layout = Imgproc.COLOR_YUV2RGBA_NV21;
+        } else if (chromaLayout.conversion == Imgproc.COLOR_YUV2RGBA_NV12) {
+            copyInterleavedChroma(planes[1], planes[2], chromaWidth, chromaHeight, frame.data, ySize);
+            frame.layout = Imgproc.COLOR_YUV2RGBA_NV12;
+        } else {
+            copyPlane(planes[1], chromaWidth, chromaHeight, frame.data, ySize, frame);
+            copyPlane(planes[2], chromaWidth, chromaHeight, frame.data, ySize + chromaWidth * chromaHeight, frame);
+            frame.layout = Imgproc.COLOR_YUV2RGBA_I420;
+        }
+
+        frame.mat.create(height + height / 2, width, CvType.CV_8UC1);
+        frame.mat.put(0, 0, frame.data);
+        return frame;
+    }
+
+    /**
+     * Copies a YUV_420_888 image into this thread's reusable frame
+     * @param image: the camera image
+     * @return the filled frame, which is overwritten by the next call on the same thread
+     */
+    public static YuvFrame imageToYuvFrame(Image image) {
+        return imageToYuvFrame(image, yuvFrames.get(), new ChromaLayout());
+    }
+
+    /**
+     * Converts part of a YUV frame to RGBA, copying only the luminance and chroma that
+     * cover the region before the color conversion
+     * @param yuvMat: the frame, laid out as in {@link YuvFrame}
+     * @param conversion: the cvtColor code that converts the frame to RGBA
+     * @param roi: the region to convert; its position and size must be multiples of 4
+     * @return a new RGBA Mat the size of the region
+     */
+    public static Mat yuvToRGBMat(Mat yuvMat, int conversion, org.opencv.core.Rect roi) {
+        int width = yuvMat.cols();
+        int height = yuvMat.rows() * 2 / 3;
+        Mat rgbaMat = new Mat();
+        if (roi.x == 0 && roi.y == 0 && roi.width == width && roi.height == height) {
+            Imgproc.cvtColor(yuvMat, rgbaMat, conversion);
+            return rgbaMat;
+        }
+        if (conversion == Imgproc.COLOR_YUV2RGBA_I420 && height % 4 != 0) {
+            // The chroma planes have an odd number of rows, so they cannot be read two rows at a time
+            Imgproc.cvtColor(yuvMat, rgbaMat, conversion);
+            Mat regionMat = rgbaMat.submat(roi).clone();
+            rgbaMat.release();
+            return regionMat;
+        }
 
+        Mat regionMat = new Mat(roi.height + roi.height / 2, roi.width, CvType.CV_8UC1);
+        copyRegion(yuvMat.submat(roi), regionMat.rowRange(0, roi.height));
+        if (conversion == Imgproc.COLOR_YUV2RGBA_I420) {
+            // Each chroma plane is a quarter-size image packed two rows to a Mat row
+            for (int plane = 0; plane < 2; plane++) {
+                Mat src = yuvMat.rowRange(height + plane * height / 4, height + (plane + 1) * height / 4);
+                Mat dst = regionMat.rowRange(roi.height + plane * roi.height / 4, roi.height + (plane + 1) * roi.height / 4);
+                Mat srcPlane = src.reshape(1, height / 2);
+                Mat dstPlane = dst.reshape(1, roi.height / 2);
+                copyRegion(srcPlane.submat(roi.y / 2, (roi.y + roi.height) / 2, roi.x / 2, (roi.x + roi.width) / 2), dstPlane);
+                src.release();
+                dst.release();
+                srcPlane.release();
+                dstPlane.release();
+            }
+        } else {
+            // Interleaved chroma covers the same columns at half the rows
+            copyRegion(yuvMat.submat(height + roi.y / 2, height + (roi.y + roi.height) / 2, roi.x, roi.x + roi.width),
+                    regionMat.rowRange(roi.height, roi.height + roi.height / 2));
+        }
+        Imgproc.cvtColor(regionMat, rgbaMat, conversion);
+        regionMat.release();
         return rgbaMat;
     }
 
-    public static Mat imageToMat(Image image) {
-        ByteBuffer buffer;
-        int rowStride;
-        int pixelStride;
+    private static void copyRegion(Mat src, Mat dst) {
+        src.copyTo(dst);
+        src.release();
+        dst.release();
+    }
+
+    /**
+     * Copies only the luminance plane of a YUV_420_888 image
+     * @param image: the camera image
+     * @param yMat: receives the grey image; reused when the size does not change
+     * @return yMat
+     */
+    public static Mat imageToYMat(Image image, Mat yMat) {
+        YuvFrame frame = yuvFrames.get();
         int width = image.getWidth();
         int height = image.getHeight();
-        int offset = 0;
+        if (frame.data.length < width * height)
+            frame.data = new byte[width * height];
+        copyPlane(image.getPlanes()[0], width, height, frame.data, 0, frame);
+        yMat.create(height, width, CvType.CV_8UC1);
+        yMat.put(0, 0, frame.data);
+        return yMat;
+    }
 
-        Image.Plane[] planes = image.getPlanes();
-        byte[] data = new byte[image.getWidth() * image.getHeight() * ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8];
-        byte[] rowData = new byte[planes[0].getRowStride()];
-
-        for (int i = 0; i < planes.length; i++) {
-            buffer = planes[i].getBuffer();
-            rowStride = planes[i].getRowStride();
-            pixelStride = planes[i].getPixelStride();
-            int w = (i == 0) ? width : width / 2;
-            int h = (i == 0) ? height : height / 2;
-            for (int row = 0; row < h; row++) {
-                int bytesPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8;
-                if (pixelStride == bytesPerPixel) {
-                    int length = w * bytesPerPixel;
-                    buffer.get(data, offset, length);
-
-                    if (h - row != 1) {
-                        buffer.position(buffer.position() + rowStride - length);
-                    }
-                    offset += length;
-                } else {
-
-
-                    if (h - row == 1) {
-                        buffer.get(rowData, 0, width - pixelStride + 1);
-                    } else {
-                        buffer.get(rowData, 0, rowStride);
-                    }
-
-                    for (int col = 0; col < w; col++) {
-                        data[offset++] = rowData[col * pixelStride];
-                    }
+    /**
+     * Copies one plane into the destination array, one bulk read per row, or a single
+     * read when the rows are not padded
+     */
+    private static void copyPlane(Image.Plane plane, int width, int height, byte[] data, int offset, YuvFrame frame) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        buffer.rewind();
+
+        if (pixelStride == 1 && rowStride == width) {
+            buffer.get(data, offset, width * height);
+            return;
+        }
+
+        if (frame.rowData.length < rowStride)
+            frame.rowData = new byte[rowStride];
+        for (int row = 0; row < height; row++) {
+            buffer.position(row * rowStride);
+            if (pixelStride == 1) {
+                buffer.get(data, offset, width);
+                offset += width;
+            } else {
+                int length = Math.min(rowStride, buffer.remaining());
+                buffer.get(frame.rowData, 0, length);
+                for (int col = 0; col < width; col++) {
+                    data[offset++] = frame.rowData[col * pixelStride];
                 }
             }
         }
+    }
+
+    /**
+     * Decides how the chroma of a reader's images is laid out. Android exposes NV21 and NV12
+     * buffers as two planes with a pixel stride of 2 and the same row stride that alias each
+     * other one byte apart, so both planes have the same number of bytes left and the plane
+     * that starts first, read from its second byte, matches the other one. Flat chroma
+     * matches in both directions, so the first row is scanned only until one direction
+     * fails, and the decision waits for a later image if neither does.
+     * @return the cvtColor code for NV21 or NV12, I420 if the planes cannot be interleaved,
+     * or {@link ChromaLayout#UNDECIDED} if this image cannot tell NV21 and NV12 apart
+     */
+    private static int decideChromaLayout(Image.Plane uPlane, Image.Plane vPlane) {
+        ByteBuffer uBuffer = uPlane.getBuffer();
+        ByteBuffer vBuffer = vPlane.getBuffer();
+        if (uPlane.getPixelStride() != 2 || vPlane.getPixelStride() != 2 ||
+                uPlane.getRowStride() != vPlane.getRowStride() ||
+                uBuffer.remaining() != vBuffer.remaining() || uBuffer.remaining() < 2)
+            return Imgproc.COLOR_YUV2RGBA_I420;
+
+        int uStart = uBuffer.position();
+        int vStart = vBuffer.position();
+        int end = Math.min(uPlane.getRowStride(), uBuffer.remaining() - 1);
+        boolean vFirst = true;
+        boolean uFirst = true;
+        for (int i = 0; i < end && vFirst && uFirst; i++) {
+            vFirst = vBuffer.get(vStart + i + 1) == uBuffer.get(uStart + i);
+            uFirst = uBuffer.get(uStart + i + 1) == vBuffer.get(vStart + i);
+        }
+        if (vFirst && uFirst)
+            return ChromaLayout.UNDECIDED;
+        if (vFirst)
+            return Imgproc.COLOR_YUV2RGBA_NV21;
+        if (uFirst)
+            return Imgproc.COLOR_YUV2RGBA_NV12;
+        return Imgproc.COLOR_YUV2RGBA_I420;
+    }
+
+    /**
+     * Copies semi-planar chroma as is, reading the plane that starts first, which already
+     * holds the interleaved samples
+     * @param first: the plane that starts first, V for NV21 or U for NV12
+     * @param second: the other plane
+     */
+    private static void copyInterleavedChroma(Image.Plane first, Image.Plane second, int width, int height,
+                                              byte[] data, int offset) {
+        ByteBuffer firstBuffer = first.getBuffer();
+        ByteBuffer secondBuffer = second.getBuffer();
+        int rowStride = first.getRowStride();
+        int rowLength = 2 * width;
+        firstBuffer.rewind();
+        for (int row = 0; row < height; row++) {
+            firstBuffer.position(row * rowStride);
+            int length = Math.min(rowLength, firstBuffer.remaining());
+            firstBuffer.get(data, offset, length);
+            // The first plane stops one byte short of the last sample of the second
+            if (length < rowLength)
+                data[offset + length] = secondBuffer.get(secondBuffer.limit() - 1);
+            offset += rowLength;
+        }
+    }
+
+    /**
+     * Copies a YUV_420_888 image into a new I420 Mat
+     * @param image: the camera image
+     * @return a new single-channel Mat with the Y, U and V planes stacked
+     */
+    public static Mat imageToMat(Image image) {
+        YuvFrame frame = new YuvFrame();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int ySize = width * height;
+        int chromaSize = (width / 2) * (height / 2);
+        frame.data = new byte[ySize + 2 * chromaSize];
+
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(planes[0], width, height, frame.data, 0, frame);
+        copyPlane(planes[1], width / 2, height / 2, frame.data, ySize, frame);
+        copyPlane(planes[2], width / 2, height / 2, frame.data, ySize + chromaSize, frame);
 
         Mat mat = new Mat(height + height / 2, width, CvType.CV_8UC1);
-        mat.put(0, 0, data);
+        mat.put(0, 0, frame.data);
 
         return mat;
     }
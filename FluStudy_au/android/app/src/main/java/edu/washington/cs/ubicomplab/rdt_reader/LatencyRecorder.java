@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a latency histogram for each stage of a pipeline. The histograms are
+ * log-linear like HdrHistogram: every power of two is split into 32 buckets, so
+ * percentiles are within about 3% of the true value from 1 microsecond up to
+ * half an hour. Recording is lock-free and does not allocate, so it can be
+ * left on in the field.
+ * @param <E>: the enum of stages
+ */
+public class LatencyRecorder<E extends Enum<E>> {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 31;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2);
+
+    public static class StageSummary {
+        public String stage;
+        public long count;
+        public double p50Ms;
+        public double p95Ms;
+        public double p99Ms;
+        public double maxMs;
+
+        @Override
+        public String toString() {
+            return String.format("%s: count: %d, p50: %.2fms, p95: %.2fms, p99: %.2fms, max: %.2fms",
+                    stage, count, p50Ms, p95Ms, p99Ms, maxMs);
+        }
+    }
+
+    private final E[] stages;
+    private final AtomicLongArray[] histograms;
+
+    /**
+     * @param stageClass: the enum of stages to keep histograms for
+     */
+    public LatencyRecorder(Class<E> stageClass) {
+        stages = stageClass.getEnumConstants();
+        histograms = new AtomicLongArray[stages.length];
+        for (int i = 0; i < stages.length; i++)
+            histograms[i] = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /**
+     * Records one measurement
+     * @param stage: the stage that was timed
+     * @param nanos: the elapsed time from System.nanoTime()
+     */
+    public void record(E stage, long nanos) {
+        histograms[stage.ordinal()].incrementAndGet(bucketIndex(nanos / 1000));
+    }
+
+    /**
+     * Clears every histogram
+     */
+    public void reset() {
+        for (int i = 0; i < stages.length; i++) {
+            for (int j = 0; j < BUCKET_COUNT; j++)
+                histograms[i].set(j, 0);
+        }
+    }
+
+    /**
+     * Summarizes every stage that has been recorded at least once
+     * @return the count and percentiles of each stage, in stage order
+     */
+    public List<StageSummary> getSummaries() {
+        List<StageSummary> summaries = new ArrayList<>();
+        for (E stage : stages) {
+            AtomicLongArray histogram = histograms[stage.ordinal()];
+            long[] snapshot = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int j = 0; j < BUCKET_COUNT; j++) {
+                snapshot[j] = histogram.get(j);
+                count += snapshot[j];
+            }
+            if (count == 0)
+                continue;
+
+            StageSummary summary = new StageSummary();
+            summary.stage = stage.name();
+            summary.count = count;
+            summary.p50Ms = percentile(snapshot, count, 0.50) / 1000.0;
+            summary.p95Ms = percentile(snapshot, count, 0.95) / 1000.0;
+            summary.p99Ms = percentile(snapshot, count, 0.99) / 1000.0;
+            summary.maxMs = percentile(snapshot, count, 1.0) / 1000.0;
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT)
+            return (int) Math.max(micros, 0);
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude > MAX_MAGNITUDE)
+            return BUCKET_COUNT - 1;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT * (shift + 1) + (int) ((micros >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return the largest value in microseconds that falls into the bucket
+     */
+    private static long bucketValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] histogram, long count, double fraction) {
+        long target = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target)
+                return bucketValue(i);
+        }
+        return bucketValue(histogram.length - 1);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.Size;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A named arena of Mats that are reused from frame to frame so that the
+ * quality-check path does not churn the native heap. A Mat handed out by
+ * the pool is owned by the pool and must not be released by the caller.
+ */
+public class MatPool {
+    private final Map<String, Mat> mats = new HashMap<>();
+    private final Map<String, Long> dataAddrs = new HashMap<>();
+    private Size frameSize = new Size(0, 0);
+    private int frameAllocations = 0;
+    private int lastFrameAllocations = 0;
+    private long totalAllocations = 0;
+
+    /**
+     * Provides the named Mat, creating it the first time it is requested
+     * @param name: a key that is unique to the Mat's role in the pipeline
+     * @return a Mat owned by the pool
+     */
+    public synchronized Mat get(String name) {
+        Mat mat = mats.get(name);
+        if (mat == null) {
+            mat = createMat();
+            put(name, mat);
+        }
+        return mat;
+    }
+
+    /**
+     * Provides the named MatOfKeyPoint, creating it the first time it is requested
+     * @param name: a key that is unique to the Mat's role in the pipeline
+     * @return a MatOfKeyPoint owned by the pool
+     */
+    public synchronized MatOfKeyPoint getKeyPoints(String name) {
+        Mat mat = mats.get(name);
+        if (!(mat instanceof MatOfKeyPoint)) {
+            mat = new MatOfKeyPoint();
+            put(name, mat);
+        }
+        return (MatOfKeyPoint) mat;
+    }
+
+    /**
+     * Provides the named MatOfDouble, creating it the first time it is requested. OpenCV
+     * functions whose Java bindings return doubles through a vector, such as Core.meanStdDev,
+     * replace the buffer on every call, so pooling their outputs does not save an allocation.
+     * @param name: a key that is unique to the Mat's role in the pipeline
+     * @return a MatOfDouble owned by the pool
+     */
+    public synchronized MatOfDouble getDoubles(String name) {
+        Mat mat = mats.get(name);
+        if (!(mat instanceof MatOfDouble)) {
+            mat = new MatOfDouble();
+            put(name, mat);
+        }
+        return (MatOfDouble) mat;
+    }
+
+    /**
+     * Marks the start of a frame. If the frame size differs from the previous
+     * frame, every pooled Mat is dropped so the arena is rebuilt for the new size.
+     * @param size: the size of the incoming frame
+     */
+    public synchronized void beginFrame(Size size) {
+        if (!size.equals(frameSize)) {
+            clear();
+            frameSize = size.clone();
+        }
+        frameAllocations = 0;
+        snapshotDataAddrs();
+    }
+
+    /**
+     * Marks the end of a frame and counts the pooled Mats whose native buffer
+     * was (re)allocated since {@link #beginFrame(Size)}
+     */
+    public synchronized void endFrame() {
+        for (Map.Entry<String, Mat> entry : mats.entrySet()) {
+            Long before = dataAddrs.get(entry.getKey());
+            long after = entry.getValue().dataAddr();
+            if (after != 0 && (before == null || before != after)) {
+                frameAllocations++;
+            }
+        }
+        lastFrameAllocations = frameAllocations;
+        totalAllocations += frameAllocations;
+        snapshotDataAddrs();
+    }
+
+    /**
+     * @return the number of native allocations made by the most recent frame
+     */
+    public synchronized int getLastFrameAllocations() {
+        return lastFrameAllocations;
+    }
+
+    /**
+     * @return the number of native allocations made since the pool was created
+     */
+    public synchronized long getTotalAllocations() {
+        return totalAllocations;
+    }
+
+    /**
+     * Releases every pooled Mat
+     */
+    public synchronized void clear() {
+        for (Mat mat : mats.values()) {
+            mat.release();
+        }
+        mats.clear();
+        dataAddrs.clear();
+        frameSize = new Size(0, 0);
+    }
+
+    /**
+     * Creates the Mat behind a new name; tests replace it so the pool can run without natives
+     * @return a new, empty Mat
+     */
+    Mat createMat() {
+        return new Mat();
+    }
+
+    private void put(String name, Mat mat) {
+        Mat previous = mats.put(name, mat);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    private void snapshotDataAddrs() {
+        dataAddrs.clear();
+        for (Map.Entry<String, Mat> entry : mats.entrySet()) {
+            dataAddrs.put(entry.getKey(), entry.getValue().dataAddr());
+        }
+    }
+}
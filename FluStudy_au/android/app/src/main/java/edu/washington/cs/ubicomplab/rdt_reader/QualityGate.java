@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+/**
+ * The cheap per-frame checks that run before feature extraction. When early
+ * exit is enabled, ImageProcessor runs the enabled gates in the configured
+ * order and stops at the first one that rejects the frame, so a frame that is
+ * already known to be unusable never reaches SIFT.
+ */
+public enum QualityGate {
+    EXPOSURE, SHARPNESS
+}
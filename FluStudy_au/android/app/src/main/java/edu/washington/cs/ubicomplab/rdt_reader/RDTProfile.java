@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import host.exp.exponent.R;
+
+import static edu.washington.cs.ubicomplab.rdt_reader.Constants.*;
+
+/**
+ * Describes one RDT product: its reference image, the geometry of its
+ * fiducials and result window, where its lines are, and the thresholds used
+ * to read them. Profiles are registered by name; the reference features for
+ * a profile are only computed when a processor switches to it.
+ */
+public class RDTProfile {
+    public static final String QUICKVUE = "quickvue";
+    public static final String SD_BIOLINE_MALARIA = "sd_bioline_malaria";
+
+    private static final Map<String, RDTProfile> profiles = new LinkedHashMap<>();
+
+    static {
+        // Set for QuickVue, using the defaults in Constants
+        register(new RDTProfile(QUICKVUE, R.drawable.quickvue_ref_v5));
+
+        // For SD Bioline Malaria (needs the sd_bioline_malaria_ag_pf reference drawable)
+        //RDTProfile malaria = new RDTProfile(SD_BIOLINE_MALARIA, R.drawable.sd_bioline_malaria_ag_pf);
+        //malaria.resultWindowX = 177;
+        //malaria.resultWindowY = 55;
+        //malaria.resultWindowWidth = 110;
+        //malaria.resultWindowHeight = 35;
+        //register(malaria);
+    }
+
+    public final String name;
+    public final int refResId;
+
+    public int resultWindowX = RESULT_WINDOW_X;
+    public int resultWindowY = RESULT_WINDOW_Y;
+    public int resultWindowWidth = RESULT_WINDOW_WIDTH;
+    public int resultWindowHeight = RESULT_WINDOW_HEIGHT;
+    public int resultWindowRectHeight = RESULT_WINDOW_RECT_HEIGHT;
+    public int resultWindowRectWidthPadding = RESULT_WINDOW_RECT_WIDTH_PADDING;
+
+    public int fiducialPositionMin = FIDUCIAL_POSITION_MIN;
+    public int fiducialPositionMax = FIDUCIAL_POSITION_MAX;
+    public int fiducialMinHeight = FIDUCIAL_MIN_HEIGHT;
+    public int fiducialMinWidth = FIDUCIAL_MIN_WIDTH;
+    public int fiducialMaxWidth = FIDUCIAL_MAX_WIDTH;
+    public int fiducialToControlLineOffset = FIDUCIAL_TO_CONTROL_LINE_OFFSET;
+    public int fiducialDistance = FIDUCIAL_DISTANCE;
+    public int fiducialCount = FIDUCIAL_COUNT;
+
+    public int controlLinePosition = CONTROL_LINE_POSITION;
+    public int testALinePosition = TEST_A_LINE_POSITION;
+    public int testBLinePosition = TEST_B_LINE_POSITION;
+    public int lineSearchWidth = LINE_SEARCH_WIDTH;
+    public float intensityThreshold = INTENSITY_THRESHOLD;
+    public float controlIntensityPeakThreshold = CONTROL_INTENSITY_PEAK_THRESHOLD;
+    public float testIntensityPeakThreshold = TEST_INTENSITY_PEAK_THRESHOLD;
+    public Scalar[] controlLineColorLower = CONTROL_LINE_COLOR_LOWER;
+    public Scalar[] controlLineColorUpper = CONTROL_LINE_COLOR_UPPER;
+
+    /**
+     * Creates a profile with the default (QuickVue) geometry and thresholds
+     * @param name: the name the profile is registered under
+     * @param refResId: the drawable resource id of the reference image
+     */
+    public RDTProfile(String name, int refResId) {
+        this.name = name;
+        this.refResId = refResId;
+    }
+
+    /**
+     * Adds a profile to the registry, replacing any profile with the same name
+     * @param profile: the profile to register
+     */
+    public static synchronized void register(RDTProfile profile) {
+        profiles.put(profile.name, profile);
+    }
+
+    /**
+     * @param name: the name of a registered profile
+     * @return the profile, or null if no profile is registered under that name
+     */
+    public static synchronized RDTProfile get(String name) {
+        return profiles.get(name);
+    }
+
+    /**
+     * @return the names of every registered profile
+     */
+    public static synchronized List<String> getNames() {
+        return new ArrayList<>(profiles.keySet());
+    }
+}
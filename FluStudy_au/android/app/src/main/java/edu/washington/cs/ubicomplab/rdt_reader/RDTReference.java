@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import android.util.Log;
+
+import org.opencv.features2d.BFMatcher;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The loaded reference features of an {@link RDTProfile} together with the
+ * matchers over its BRISK and SIFT descriptors. This is the part of a
+ * profile that is expensive to build and is kept in the processor's LRU cache.
+ */
+public class RDTReference {
+    private static final String TAG = "RDTReference";
+
+    public final RDTProfile profile;
+    public final ReferenceBundle bundle;
+    private final EnumMap<ReferenceMatcher.Backend, ReferenceMatcher> briskMatchers =
+            new EnumMap<>(ReferenceMatcher.Backend.class);
+    private final EnumMap<ReferenceMatcher.Backend, ReferenceMatcher> siftMatchers =
+            new EnumMap<>(ReferenceMatcher.Backend.class);
+
+    /**
+     * Builds the matchers for every backend, so the FLANN indexes are trained while the
+     * reference loads rather than on the first frame
+     * @param profile: the profile the features belong to
+     * @param bundle: the reference features
+     */
+    public RDTReference(RDTProfile profile, ReferenceBundle bundle) {
+        this.profile = profile;
+        this.bundle = bundle;
+
+        ReferenceMatcher briskBruteForce =
+                new BruteForceReferenceMatcher(bundle.briskDescriptors, BFMatcher.BRUTEFORCE_HAMMING);
+        briskMatchers.put(ReferenceMatcher.Backend.BRUTE_FORCE, briskBruteForce);
+        ReferenceMatcher briskFlann;
+        try {
+            briskFlann = new FlannReferenceMatcher(bundle.briskDescriptors, true);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "FLANN is unavailable for BRISK descriptors, using brute force", e);
+            briskFlann = briskBruteForce;
+        }
+        briskMatchers.put(ReferenceMatcher.Backend.FLANN, briskFlann);
+
+        siftMatchers.put(ReferenceMatcher.Backend.BRUTE_FORCE,
+                new BruteForceReferenceMatcher(bundle.siftDescriptors, BFMatcher.BRUTEFORCE));
+        siftMatchers.put(ReferenceMatcher.Backend.FLANN,
+                new FlannReferenceMatcher(bundle.siftDescriptors, false));
+    }
+
+    /**
+     * @param backend: the matcher backend
+     * @return the matcher over the BRISK descriptors; brute force if the backend could not be
+     * set up for BRISK
+     */
+    public synchronized ReferenceMatcher getBriskMatcher(ReferenceMatcher.Backend backend) {
+        return briskMatchers.get(backend);
+    }
+
+    /**
+     * @param backend: the matcher backend
+     * @return the matcher over the SIFT descriptors
+     */
+    public synchronized ReferenceMatcher getSiftMatcher(ReferenceMatcher.Backend backend) {
+        return siftMatchers.get(backend);
+    }
+
+    /**
+     * Releases the matchers and the reference features
+     */
+    public synchronized void release() {
+        // A backend that fell back to brute force shares its matcher
+        Set<ReferenceMatcher> matchers = new HashSet<>(briskMatchers.values());
+        matchers.addAll(siftMatchers.values());
+        for (ReferenceMatcher matcher : matchers)
+            matcher.release();
+        briskMatchers.clear();
+        siftMatchers.clear();
+        bundle.release();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The precomputed features of an RDT reference image: the processed grey
+ * reference, its BRISK and SIFT keypoints and descriptors, and its sharpness
+ * at the width of the expected frame's downsampled viewfinder window.
+ * A bundle is computed on first run, written to internal storage, and
+ * memory-mapped on later starts. It is recomputed only when the hash of the
+ * reference image resource changes.
+ */
+public class ReferenceBundle {
+    private static final String TAG = "ReferenceBundle";
+    private static final int MAGIC = 0x52445452; // "RDTR"
+    // Bump whenever the way reference features are computed changes
+    private static final int FORMAT_VERSION = 2;
+    private static final int KEYPOINT_FIELDS = 7;
+
+    public final Mat refImg;
+    public final MatOfKeyPoint briskKeypoints;
+    public final Mat briskDescriptors;
+    public final MatOfKeyPoint siftKeypoints;
+    public final Mat siftDescriptors;
+    // Measured the same way as a frame's viewfinder window, after scaling to sharpnessWidth
+    public final double sharpness;
+    public final int sharpnessWidth;
+
+    public ReferenceBundle(Mat refImg, MatOfKeyPoint briskKeypoints, Mat briskDescriptors,
+                           MatOfKeyPoint siftKeypoints, Mat siftDescriptors,
+                           double sharpness, int sharpnessWidth) {
+        this.refImg = refImg;
+        this.briskKeypoints = briskKeypoints;
+        this.briskDescriptors = briskDescriptors;
+        this.siftKeypoints = siftKeypoints;
+        this.siftDescriptors = siftDescriptors;
+        this.sharpness = sharpness;
+        this.sharpnessWidth = sharpnessWidth;
+    }
+
+    /**
+     * Computes a hash of the raw reference image resource
+     * @param context: the application context
+     * @param resId: the drawable resource id of the reference image
+     * @return the CRC32 of the resource bytes
+     */
+    public static long hashResource(Context context, int resId) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = context.getResources().openRawResource(resId);
+        try {
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Loads the stored bundle for a reference image if it is still valid
+     * @param context: the application context
+     * @param resId: the drawable resource id of the reference image
+     * @param hash: the current hash of the reference image resource
+     * @return the bundle, or null if none is stored or it was computed from a different image
+     */
+    public static ReferenceBundle load(Context context, int resId, long hash) {
+        File file = getFile(context, resId);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != hash) {
+                return null;
+            }
+
+            double sharpness = buffer.getDouble();
+            int sharpnessWidth = buffer.getInt();
+            Mat refImg = readMat(buffer);
+            MatOfKeyPoint briskKeypoints = readKeypoints(buffer);
+            Mat briskDescriptors = readMat(buffer);
+            MatOfKeyPoint siftKeypoints = readKeypoints(buffer);
+            Mat siftDescriptors = readMat(buffer);
+            return new ReferenceBundle(refImg, briskKeypoints, briskDescriptors,
+                    siftKeypoints, siftDescriptors, sharpness, sharpnessWidth);
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to load reference bundle: " + e.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the bundle to internal storage
+     * @param context: the application context
+     * @param resId: the drawable resource id of the reference image
+     * @param hash: the hash of the reference image resource the bundle was computed from
+     */
+    public void save(Context context, int resId, long hash) {
+        int size = 4 + 4 + 8 + 8 + 4 +
+                matSize(refImg) +
+                keypointsSize(briskKeypoints) + matSize(briskDescriptors) +
+                keypointsSize(siftKeypoints) + matSize(siftDescriptors);
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(hash);
+        buffer.putDouble(sharpness);
+        buffer.putInt(sharpnessWidth);
+        writeMat(buffer, refImg);
+        writeKeypoints(buffer, briskKeypoints);
+        writeMat(buffer, briskDescriptors);
+        writeKeypoints(buffer, siftKeypoints);
+        writeMat(buffer, siftDescriptors);
+
+        // Write to a temporary file first so a partial write is never loaded
+        File file = getFile(context, resId);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(buffer.array());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Unable to move reference bundle into place");
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save reference bundle: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Releases the native resources held by the bundle
+     */
+    public void release() {
+        refImg.release();
+        briskKeypoints.release();
+        briskDescriptors.release();
+        siftKeypoints.release();
+        siftDescriptors.release();
+    }
+
+    private static File getFile(Context context, int resId) {
+        String name = context.getResources().getResourceEntryName(resId);
+        return new File(context.getFilesDir(), "rdt_reference_" + name + ".bin");
+    }
+
+    private static int matSize(Mat mat) {
+        return 3*4 + (int) (mat.total() * mat.elemSize());
+    }
+
+    private static int keypointsSize(MatOfKeyPoint keypoints) {
+        return 4 + (int) keypoints.total() * KEYPOINT_FIELDS * 4;
+    }
+
+    private static void writeMat(ByteBuffer buffer, Mat mat) {
+        buffer.putInt(mat.rows());
+        buffer.putInt(mat.cols());
+        buffer.putInt(mat.type());
+        if (mat.depth() == CvType.CV_32F) {
+            float[] data = new float[(int) (mat.total() * mat.channels())];
+            if (data.length > 0)
+                mat.get(0, 0, data);
+            buffer.asFloatBuffer().put(data);
+            buffer.position(buffer.position() + data.length * 4);
+        } else {
+            byte[] data = new byte[(int) (mat.total() * mat.channels())];
+            if (data.length > 0)
+                mat.get(0, 0, data);
+            buffer.put(data);
+        }
+    }
+
+    private static Mat readMat(ByteBuffer buffer) {
+        int rows = buffer.getInt();
+        int cols = buffer.getInt();
+        int type = buffer.getInt();
+        Mat mat = new Mat(rows, cols, type);
+        if (CvType.depth(type) == CvType.CV_32F) {
+            float[] data = new float[(int) (mat.total() * mat.channels())];
+            buffer.asFloatBuffer().get(data);
+            buffer.position(buffer.position() + data.length * 4);
+            if (data.length > 0)
+                mat.put(0, 0, data);
+        } else {
+            byte[] data = new byte[(int) (mat.total() * mat.channels())];
+            buffer.get(data);
+            if (data.length > 0)
+                mat.put(0, 0, data);
+        }
+        return mat;
+    }
+
+    private static void writeKeypoints(ByteBuffer buffer, MatOfKeyPoint keypoints) {
+        int count = (int) keypoints.total();
+        buffer.putInt(count);
+        float[] data = new float[count * KEYPOINT_FIELDS];
+        if (count > 0) {
+            keypoints.get(0, 0, data);
+        }
+        buffer.asFloatBuffer().put(data);
+        buffer.position(buffer.position() + data.length * 4);
+    }
+
+    private static MatOfKeyPoint readKeypoints(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        if (count > 0) {
+            float[] data = new float[count * KEYPOINT_FIELDS];
+            buffer.asFloatBuffer().get(data);
+            buffer.position(buffer.position() + data.length * 4);
+            keypoints.create(count, 1, CvType.CV_32FC(KEYPOINT_FIELDS));
+            keypoints.put(0, 0, data);
+        }
+        return keypoints;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.DMatch;
+import org.opencv.core.Mat;
+
+import java.util.List;
+
+/**
+ * Matches a frame's descriptors against a fixed set of reference descriptors.
+ * Implementations may build an index over the reference descriptors up front
+ * so that each frame only pays for the lookup.
+ *
+ * Every returned DMatch has its queryIdx pointing into the reference keypoints
+ * and its trainIdx pointing into the frame keypoints, regardless of backend.
+ */
+public interface ReferenceMatcher {
+    enum Backend {
+        BRUTE_FORCE, FLANN
+    }
+
+    /**
+     * Finds the best match for each descriptor and keeps those that pass Lowe's ratio test
+     * @param frameDescriptors: the descriptors computed on the frame
+     * @param ratio: the maximum ratio between the best and second best match distance
+     * @return the good matches
+     */
+    List<DMatch> knnMatch(Mat frameDescriptors, float ratio);
+
+    /**
+     * Finds the single best match for each descriptor
+     * @param frameDescriptors: the descriptors computed on the frame
+     * @return the matches
+     */
+    List<DMatch> match(Mat frameDescriptors);
+
+    /**
+     * @return the backend this matcher uses
+     */
+    Backend getBackend();
+
+    /**
+     * Releases the native resources held by the matcher
+     */
+    void release();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import static org.opencv.imgproc.Imgproc.cvtColor;
+
+/**
+ * The per-column average intensity, hue and saturation across the full width
+ * of a result window. It is computed once per interpretation and shared by
+ * every line reader, so reading another line only costs a scan of its columns.
+ */
+public class ResultWindowProfile {
+    private final int width;
+    private final float[] intensities;
+    private final float[] hues;
+    private final float[] saturations;
+
+    /**
+     * Computes the column profiles of a result window
+     * @param resultMat: the RGBA result window
+     */
+    public ResultWindowProfile(Mat resultMat) {
+        Mat hls = new Mat();
+        cvtColor(resultMat, hls, Imgproc.COLOR_RGBA2RGB);
+        cvtColor(hls, hls, Imgproc.COLOR_RGB2HLS);
+
+        // Copy the interleaved H, L, S values out in a single call
+        int rows = hls.rows();
+        width = hls.cols();
+        byte[] data = new byte[rows * width * 3];
+        if (data.length > 0)
+            hls.get(0, 0, data);
+        hls.release();
+
+        // Sum every column in one row-major pass
+        int[] sumIntensity = new int[width];
+        int[] sumHue = new int[width];
+        int[] sumSat = new int[width];
+        int index = 0;
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < width; i++) {
+                sumHue[i] += data[index++] & 0xFF;
+                sumIntensity[i] += data[index++] & 0xFF;
+                sumSat[i] += data[index++] & 0xFF;
+            }
+        }
+
+        intensities = new float[width];
+        hues = new float[width];
+        saturations = new float[width];
+        for (int i = 0; i < width; i++) {
+            intensities[i] = (float) sumIntensity[i]/rows;
+            hues[i] = (float) sumHue[i]/rows;
+            saturations[i] = (float) sumSat[i]/rows;
+        }
+    }
+
+    /**
+     * @return the width of the result window in columns
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the average HLS lightness of each column
+     */
+    public float[] getIntensities() {
+        return intensities;
+    }
+
+    /**
+     * @return the average HLS hue of each column
+     */
+    public float[] getHues() {
+        return hues;
+    }
+
+    /**
+     * @return the average HLS saturation of each column
+     */
+    public float[] getSaturations() {
+        return saturations;
+    }
+}
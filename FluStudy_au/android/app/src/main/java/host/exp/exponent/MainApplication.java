@@ -31,6 +31,8 @@ import org.linusu.RNGetRandomValuesPackage;
 import expo.loaders.provider.interfaces.AppLoaderPackagesProviderInterface;
 import host.exp.exponent.generated.BasePackageList;
 
+import edu.washington.cs.ubicomplab.rdt_reader.ImageProcessor;
+
 public class MainApplication extends ExpoApplication implements AppLoaderPackagesProviderInterface {
 
   private static CallbackManager mCallbackManager = CallbackManager.Factory.create();
@@ -39,6 +41,13 @@ public class MainApplication extends ExpoApplication implements AppLoaderPackage
     return mCallbackManager;
   }
 
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    // Load the RDT reference features in the background while the app starts
+    ImageProcessor.initAsync(this, null);
+  }
+
   @Override
   public boolean isDebug() {
     return BuildConfig.DEBUG;
@@ -52,7 +61,10 @@ public class MainApplication extends ExpoApplication implements AppLoaderPackage
             new ReactPackage() {
               @Override
               public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
-                return Arrays.<NativeModule>asList(new OpenAppSettingsModule(reactContext));
+                return Arrays.<NativeModule>asList(
+                    new OpenAppSettingsModule(reactContext),
+                    new RDTReaderStatsModule(reactContext)
+                );
               }
 
               @Override
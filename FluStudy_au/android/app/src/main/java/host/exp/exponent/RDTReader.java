@@ -113,10 +113,15 @@ public class RDTReader extends LinearLayout implements ImageQualityView.ImageQua
         event.putBoolean("center", captureResult.isCentered);
         event.putInt("sizeResult", captureResult.sizeResult.ordinal());
         event.putBoolean("shadow", captureResult.isShadow);
-        event.putBoolean("sharpness", captureResult.isSharp);
+        // Leave out the checks that did not run, rather than report them as passing
+        if (captureResult.sharpnessChecked) {
+            event.putBoolean("sharpness", captureResult.isSharp);
+        }
         event.putBoolean("orientation", captureResult.isRightOrientation);
         event.putDouble("angle", captureResult.angle);
-        event.putInt("exposureResult", captureResult.exposureResult.ordinal());
+        if (captureResult.exposureChecked) {
+            event.putInt("exposureResult", captureResult.exposureResult.ordinal());
+        }
         event.putBoolean("control", interpretationResult.control);
         event.putBoolean("testA", interpretationResult.testA);
         event.putBoolean("testB", interpretationResult.testB);
@@ -0,0 +1,56 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+
+import edu.washington.cs.ubicomplab.rdt_reader.ImageProcessor;
+import edu.washington.cs.ubicomplab.rdt_reader.LatencyRecorder;
+
+public class RDTReaderStatsModule extends ReactContextBaseJavaModule {
+  @Override
+  public String getName() {
+    return "RDTReaderStatsModule";
+  }
+
+  // Resolves to a map from capture stage name to {count, p50, p95, p99, max},
+  // with the latencies in milliseconds. Stages that have not run yet are left
+  // out, and the map is empty until the RDT reader has finished loading.
+  @ReactMethod
+  public void getStageLatencies(Promise promise) {
+    WritableMap result = Arguments.createMap();
+    ImageProcessor processor = ImageProcessor.getInstanceIfReady();
+    if (processor != null) {
+      for (LatencyRecorder.StageSummary summary : processor.getLatencySummaries()) {
+        WritableMap stage = Arguments.createMap();
+        stage.putDouble("count", summary.count);
+        stage.putDouble("p50", summary.p50Ms);
+        stage.putDouble("p95", summary.p95Ms);
+        stage.putDouble("p99", summary.p99Ms);
+        stage.putDouble("max", summary.maxMs);
+        result.putMap(summary.stage, stage);
+      }
+    }
+    promise.resolve(result);
+  }
+
+  @ReactMethod
+  public void resetStageLatencies() {
+    ImageProcessor processor = ImageProcessor.getInstanceIfReady();
+    if (processor != null) {
+      processor.resetLatencies();
+    }
+  }
+
+  public RDTReaderStatsModule(ReactApplicationContext reactContext) {
+    super(reactContext);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 University of Washington Ubicomp Lab
+ * All rights reserved.
+ *
+ * This software may be modified and distributed under the terms
+ * of a BSD-style license that can be found in the LICENSE file.
+ */
+
+package edu.washington.cs.ubicomplab.rdt_reader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks MatPool's contract: Mats are reused by name until the frame size changes, and
+ * endFrame counts the pooled Mats whose buffer was (re)allocated during the frame. The
+ * pooled Mats are stand-ins whose buffer address the test sets, so no OpenCV natives
+ * are needed.
+ */
+public class MatPoolTest {
+    private static final Size FRAME_SIZE = new Size(1280, 720);
+
+    /**
+     * A Mat that never reaches the native library; an OpenCV call that allocates its
+     * buffer is simulated by setting a new address
+     */
+    private static class FakeMat extends Mat {
+        private static long nextAddr = 1;
+
+        long dataAddr = 0;
+        boolean released = false;
+
+        FakeMat() {
+            super(1);
+        }
+
+        void allocate() {
+            dataAddr = nextAddr++;
+        }
+
+        @Override
+        public long dataAddr() {
+            return dataAddr;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+            dataAddr = 0;
+        }
+
+        @Override
+        protected void finalize() {
+        }
+    }
+
+    private final List<FakeMat> created = new ArrayList<>();
+    private MatPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new MatPool() {
+            @Override
+            Mat createMat() {
+                FakeMat mat = new FakeMat();
+                created.add(mat);
+                return mat;
+            }
+        };
+    }
+
+    /**
+     * Takes the named Mats, allocating the buffers of those that have none yet, as an
+     * OpenCV call writing into them would
+     */
+    private void runFrame(Size size, String... names) {
+        pool.beginFrame(size);
+        for (String name : names) {
+            FakeMat mat = (FakeMat) pool.get(name);
+            if (mat.dataAddr == 0)
+                mat.allocate();
+        }
+        pool.endFrame();
+    }
+
+    @Test
+    public void matsAreReusedByName() {
+        pool.beginFrame(FRAME_SIZE);
+        Mat resized = pool.get("resized");
+        assertSame(resized, pool.get("resized"));
+        assertNotSame(resized, pool.get("laplacian"));
+        pool.endFrame();
+
+        pool.beginFrame(FRAME_SIZE);
+        assertSame(resized, pool.get("resized"));
+        pool.endFrame();
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        runFrame(FRAME_SIZE, "resized", "laplacian");
+        assertEquals(2, pool.getLastFrameAllocations());
+
+        for (int i = 0; i < 10; i++) {
+            runFrame(FRAME_SIZE, "resized", "laplacian");
+            assertEquals(0, pool.getLastFrameAllocations());
+        }
+        assertEquals(2, pool.getTotalAllocations());
+    }
+
+    @Test
+    public void emptyMatsAreNotCounted() {
+        pool.beginFrame(FRAME_SIZE);
+        pool.get("unused");
+        pool.endFrame();
+        assertEquals(0, pool.getLastFrameAllocations());
+    }
+
+    @Test
+    public void reallocationIsCounted() {
+        runFrame(FRAME_SIZE, "resized", "laplacian");
+        pool.beginFrame(FRAME_SIZE);
+        ((FakeMat) pool.get("resized")).allocate();
+        pool.endFrame();
+        assertEquals(1, pool.getLastFrameAllocations());
+        assertEquals(3, pool.getTotalAllocations());
+    }
+
+    @Test
+    public void newFrameSizeRebuildsThePool() {
+        runFrame(FRAME_SIZE, "resized", "laplacian");
+        List<FakeMat> firstMats = new ArrayList<>(created);
+
+        Size smaller = new Size(640, 480);
+        runFrame(smaller, "resized", "laplacian");
+        assertEquals(2, pool.getLastFrameAllocations());
+        for (FakeMat mat : firstMats)
+            assertTrue(mat.released);
+        assertEquals(4, created.size());
+
+        runFrame(smaller, "resized", "laplacian");
+        assertEquals(0, pool.getLastFrameAllocations());
+    }
+
+    @Test
+    public void clearReleasesEveryMat() {
+        runFrame(FRAME_SIZE, "resized", "laplacian");
+        pool.clear();
+        for (FakeMat mat : created)
+            assertTrue(mat.released);
+    }
+}
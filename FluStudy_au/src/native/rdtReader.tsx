@@ -17,10 +17,11 @@ type InternalRDTCapturedArgs = {
   sizeResult: RDTReaderSizeResult;
   shadow: boolean;
   target: number;
-  sharpness: boolean;
+  // Left out when the check did not run on the frame
+  sharpness?: boolean;
   orientation: boolean;
   angle: number;
-  exposureResult: RDTReaderExposureResult;
+  exposureResult?: RDTReaderExposureResult;
   control: boolean;
   testA: boolean;
   testB: boolean;
@@ -35,10 +36,11 @@ export type RDTCapturedArgs = {
   fiducialFound: boolean;
   isCentered: boolean;
   sizeResult: RDTReaderSizeResult;
-  isFocused: boolean;
+  // Undefined when the check did not run on the frame
+  isFocused?: boolean;
   isRightOrientation: boolean;
   angle: number;
-  exposureResult: RDTReaderExposureResult;
+  exposureResult?: RDTReaderExposureResult;
   controlLineFound: boolean;
   testALineFound: boolean;
   testBLineFound: boolean;
@@ -202,7 +202,8 @@ class RDTReader extends React.Component<Props & WithNamespaces> {
       cooldown: 0,
     },
     notFocused: {
-      predicate: (readerResult: RDTCapturedArgs) => !readerResult.isFocused,
+      predicate: (readerResult: RDTCapturedArgs) =>
+        readerResult.isFocused === false,
       duration: PREDICATE_DURATION_NORMAL,
       action: () =>
         this._addInstructionRequest("focused", "notFocused", "holdSteady"),
@@ -597,13 +598,17 @@ class RDTReader extends React.Component<Props & WithNamespaces> {
       exposureResult,
     } = args;
 
+    // A check that did not run on this frame keeps its last reading
     this.setState({
       angle,
       isCentered,
       sizeResult,
-      isFocused,
+      isFocused: isFocused === undefined ? this.state.isFocused : isFocused,
       isRightOrientation,
-      exposureResult,
+      exposureResult:
+        exposureResult === undefined
+          ? this.state.exposureResult
+          : exposureResult,
     });
 
     for (let key in this._feedbackChecks) {
@@ -11,7 +11,6 @@ import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.hardware.Camera;
@@ -21,7 +20,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.SystemClock;
 import android.os.Trace;
 import android.support.v4.app.ActivityCompat;
 import android.util.AttributeSet;
@@ -43,6 +41,7 @@ import java.util.Map;
 
 import host.exp.exponent.customview.AutoFitTextureView;
 import host.exp.exponent.env.ImageUtils;
+import host.exp.exponent.env.LatencyRecorder;
 import host.exp.exponent.tflite.Classifier;
 import host.exp.exponent.tracking.InterpretationTracker;
 import host.exp.exponent.tracking.RDTTracker;
@@ -68,7 +67,19 @@ public class DetectorView extends LinearLayout implements
 
     private static final String RDT_PHOTO_FILE_NAME = "rdt_photo.jpg";
     private static final String RDT_TEST_AREA_PHOTO_FILE_NAME = "rdt_test_area_photo.jpg";
-    private static final String RDT_PREVIEW_FILE_NAME = "rdt_preview.jpg";
+
+    // Preview frames are saved every PREVIEW_SAMPLE_INTERVAL analyzed frames and whenever the
+    // failure reason changes, off the inference thread, into a journal that keeps the last
+    // PREVIEW_JOURNAL_FRAMES frames or PREVIEW_JOURNAL_BYTES bytes, plus any frames React has pinned
+    private static final String PREVIEW_DIRECTORY = "previews";
+    private static final int PREVIEW_SAMPLE_INTERVAL = 5;
+    private static final int PREVIEW_JPEG_QUALITY = 90;
+    private static final int PREVIEW_MAX_PENDING_WRITES = 2;
+    private static final int PREVIEW_JOURNAL_FRAMES = 30;
+    private static final long PREVIEW_JOURNAL_BYTES = 20 * 1024 * 1024;
+
+    // Frames that can be in flight at once: one being converted, one waiting and one being analyzed
+    private static final int PIPELINE_DEPTH = 3;
 
     private MainActivity activity;
     private ResourceLoader resourceLoader;
@@ -80,6 +91,8 @@ public class DetectorView extends LinearLayout implements
     private Handler handler;
     private HandlerThread handlerThread;
 
+    private PreviewRecorder previewRecorder;
+
     private Classifier boxDetector;
     private Classifier interpretationDetector;
 
@@ -94,6 +107,18 @@ public class DetectorView extends LinearLayout implements
 
     private boolean processFrames = false;
 
+    public enum Stage {
+        CONVERSION,
+        PHASE_1,
+        PHASE_2
+    }
+
+    // Shared by every DetectorView so the histograms cover the whole session
+    private static final LatencyRecorder<Stage> latencies = new LatencyRecorder<>(Stage.class);
+
+    // Shared by every DetectorView so pins from React outlive the view that recorded the frame
+    private static PreviewJournal previewJournal;
+
     public DetectorView(Context context, AttributeSet attrs) {
         super(context, attrs);
         if (context instanceof MainActivity) {
@@ -108,6 +133,8 @@ public class DetectorView extends LinearLayout implements
         // TODO: move this to background thread and check that it's ready where needed
         resourceLoader = new ResourceLoader(context, activity.getAssets());
         iprdAdapter = new IprdAdapter();
+        previewRecorder = new PreviewRecorder(getPreviewJournal(activity), PREVIEW_SAMPLE_INTERVAL,
+                PREVIEW_JPEG_QUALITY, PREVIEW_MAX_PENDING_WRITES);
 
         boxDetector = resourceLoader.loadPhase1Detector();
         interpretationDetector = resourceLoader.loadPhase2Detector();
@@ -127,6 +154,22 @@ public class DetectorView extends LinearLayout implements
         this.detectorListener = listener;
     }
 
+    public static List<LatencyRecorder.StageSummary> getLatencySummaries() {
+        return latencies.getSummaries();
+    }
+
+    public static void resetLatencies() {
+        latencies.reset();
+    }
+
+    public static synchronized PreviewJournal getPreviewJournal(Context context) {
+        if (previewJournal == null) {
+            previewJournal = new PreviewJournal(new File(context.getFilesDir(), PREVIEW_DIRECTORY),
+                    PREVIEW_JOURNAL_FRAMES, PREVIEW_JOURNAL_BYTES);
+        }
+        return previewJournal;
+    }
+
     public void onPreviewSizeChosen(final Size previewSize, final Size stillSize,
                                     final int rotation, boolean supportsTorchMode) {
         this.previewSize = previewSize;
@@ -157,10 +200,8 @@ public class DetectorView extends LinearLayout implements
         }
     }
 
-    protected synchronized void runInBackground(final Runnable r) {
-        if (handler != null) {
-            handler.post(r);
-        }
+    protected synchronized boolean runInBackground(final Runnable r) {
+        return handler != null && handler.post(r);
     }
 
     public Size getDesiredPreviewFrameSize() {
@@ -173,7 +214,14 @@ public class DetectorView extends LinearLayout implements
         protected RDTTracker rdtTracker;
 
         private boolean isProcessingFrame = false;
-        private volatile boolean analyzingFrame = false;
+
+        // Converted frames are handed to the inference thread through a one-frame slot, so the
+        // next frame can be converted while the previous one is analyzed
+        private final Object frameLock = new Object();
+        private final LinkedList<Frame> freeFrames = new LinkedList<>();
+        private int frameCount = 0;
+        private Frame pendingFrame = null;
+        private boolean analyzingFrame = false;
 
         private byte[] yBytes;
         private byte[] uBytes;
@@ -181,9 +229,11 @@ public class DetectorView extends LinearLayout implements
 
         private int[] rgbBytes = null;
 
-        protected Bitmap boxModelBitmap = null;
+        // The images of the frame being analyzed; only read on the inference thread
+        protected int[] boxModelPixels = null;
         private Matrix imageToModelTransform;
         private Matrix modelToImageTransform;
+        private final float[] modelToImageValues = new float[9];
 
         protected Bitmap imageBitmap = null;
         protected int imageWidth;
@@ -221,17 +271,40 @@ public class DetectorView extends LinearLayout implements
             vBuffer.get(vBytes);
         }
 
-        private void updateBitmaps() {
-            imageBitmap.setPixels(getRgbBytes(), 0, imageWidth, 0, 0, imageWidth, imageHeight);
-            final Canvas canvas = new Canvas(boxModelBitmap);
-            canvas.drawBitmap(imageBitmap, imageToModelTransform, null);
+        private void updateBitmaps(Frame frame) {
+            final int[] rgb = getRgbBytes();
+            frame.imageBitmap.setPixels(rgb, 0, imageWidth, 0, 0, imageWidth, imageHeight);
+            // Scale and rotate straight into the model input rather than drawing a model-sized bitmap
+            ImageUtils.transformARGB8888(
+                    rgb, imageWidth, imageHeight, modelToImageValues,
+                    frame.boxModelPixels, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
             readyForNextImage();
         }
 
-        protected void initialize() {
-            imageBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Config.ARGB_8888);
-            boxModelBitmap = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Config.ARGB_8888);
+        /**
+         * Takes a frame to convert into, allocating one if fewer than PIPELINE_DEPTH exist
+         * @return the frame, or null if every frame is still in flight
+         */
+        private Frame obtainFrame() {
+            synchronized (frameLock) {
+                if (!freeFrames.isEmpty()) {
+                    return freeFrames.removeFirst();
+                }
+                if (frameCount < PIPELINE_DEPTH) {
+                    frameCount++;
+                    return new Frame();
+                }
+                return null;
+            }
+        }
+
+        private void recycleFrame(Frame frame) {
+            synchronized (frameLock) {
+                freeFrames.addLast(frame);
+            }
+        }
 
+        protected void initialize() {
             imageToModelTransform =
                     ImageUtils.getTransformationMatrix(
                             imageWidth, imageHeight,
@@ -240,6 +313,7 @@ public class DetectorView extends LinearLayout implements
 
             modelToImageTransform = new Matrix();
             imageToModelTransform.invert(modelToImageTransform);
+            modelToImageTransform.getValues(modelToImageValues);
             rdtTracker = new RDTTracker(imageWidth, imageHeight, sensorOrientation, screenWidth, screenHeight);
             if (rgbBytes == null) {
                 rgbBytes = new int[imageWidth * imageHeight];
@@ -247,6 +321,11 @@ public class DetectorView extends LinearLayout implements
             initialized = true;
         }
 
+        private class Frame {
+            final Bitmap imageBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Config.ARGB_8888);
+            final int[] boxModelPixels = new int[TF_OD_API_INPUT_SIZE * TF_OD_API_INPUT_SIZE];
+        }
+
         /** Callback for Camera2 API */
         @Override
         public void onImageAvailable(ImageReader reader) {
@@ -368,39 +447,81 @@ public class DetectorView extends LinearLayout implements
 
         protected List<Classifier.Recognition> runPhaseOne() {
             // Local interpretation prototype
-            final long boxStartTimeMs = SystemClock.uptimeMillis();
+            final long boxStartTime = System.nanoTime();
 
-            final List<Classifier.Recognition> results = boxDetector.recognizeImage(boxModelBitmap);
-            Log.i(TAG, "Phase 1 processing time: " + (SystemClock.uptimeMillis() - boxStartTimeMs) + "ms");
+            final List<Classifier.Recognition> results = boxDetector.recognizePixels(boxModelPixels);
+            final long boxTime = System.nanoTime() - boxStartTime;
+            latencies.record(Stage.PHASE_1, boxTime);
+            Log.i(TAG, "Phase 1 processing time: " + boxTime / 1000000 + "ms");
 
             return filterResults(BOX_MINIMUM_CONFIDENCE_TF_OD_API, results, true);
         }
 
         private void processImage() {
             // No mutex needed as this method is not reentrant.
-            if (analyzingFrame || !processFrames) {
+            Frame frame = processFrames ? obtainFrame() : null;
+            if (frame == null) {
                 readyForNextImage();
                 return;
             }
-            analyzingFrame = true;
 
             Trace.beginSection("processImage");
 
-            updateBitmaps();
+            final long conversionStartTime = System.nanoTime();
+            updateBitmaps(frame);
+            latencies.record(Stage.CONVERSION, System.nanoTime() - conversionStartTime);
+
+            // Hand the frame over; a frame still waiting for the inference thread is stale, so it
+            // is replaced rather than queued behind
+            boolean startAnalysis;
+            Frame staleFrame;
+            synchronized (frameLock) {
+                staleFrame = pendingFrame;
+                pendingFrame = frame;
+                startAnalysis = !analyzingFrame;
+                analyzingFrame = true;
+            }
+            if (staleFrame != null) {
+                recycleFrame(staleFrame);
+            }
+            if (startAnalysis && !runInBackground(analyzeFrames)) {
+                // The inference thread is stopped; keep the frame for when it restarts
+                synchronized (frameLock) {
+                    analyzingFrame = false;
+                }
+            }
+            Trace.endSection(); // processPreviewImage
+        }
 
-            runInBackground(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            Trace.beginSection("Running Process Image");
-                            processResult();
-                            Trace.endSection(); // Running Process Image
+        private final Runnable analyzeFrames = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Frame frame;
+                    synchronized (frameLock) {
+                        frame = pendingFrame;
+                        pendingFrame = null;
+                        if (frame == null) {
                             // Log.d(TAG, ImageListener.this.getClass().getSimpleName() + " analyzingFrame = false");
                             analyzingFrame = false;
+                            return;
                         }
-                    });
-            Trace.endSection(); // processPreviewImage
-        }
+                    }
+
+                    Trace.beginSection("Running Process Image");
+                    imageBitmap = frame.imageBitmap;
+                    boxModelPixels = frame.boxModelPixels;
+                    try {
+                        processResult();
+                    } finally {
+                        imageBitmap = null;
+                        boxModelPixels = null;
+                        recycleFrame(frame);
+                    }
+                    Trace.endSection(); // Running Process Image
+                }
+            }
+        };
 
         protected abstract void processResult();
 
@@ -408,14 +529,19 @@ public class DetectorView extends LinearLayout implements
                 float minimumConfidence, List<Classifier.Recognition> results, boolean toPreviewTransform) {
             final List<Classifier.Recognition> mappedRecognitions = new LinkedList<>();
             for (final Classifier.Recognition result : results) {
-                final RectF location = result.getLocation();
-                if (location != null && result.getConfidence() >= minimumConfidence) {
+                if (result.getConfidence() < minimumConfidence) {
+                    continue;
+                }
+                // The detector reuses its results on the next frame, so keep a copy
+                final Classifier.Recognition mapped = new Classifier.Recognition(result);
+                final RectF location = mapped.getLocation();
+                if (location != null) {
 
                     if (toPreviewTransform) {
                         modelToImageTransform.mapRect(location);
-                        result.setLocation(location);
+                        mapped.setLocation(location);
                     }
-                    mappedRecognitions.add(result);
+                    mappedRecognitions.add(mapped);
                 }
             }
             return mappedRecognitions;
@@ -537,9 +663,19 @@ public class DetectorView extends LinearLayout implements
                 failureReason = "(IPRD) not steady";
             }
 
-            String previewUri = saveImage(imageBitmap, previewFrameIndex + "_" + SystemClock.elapsedRealtime() + "_" + RDT_PREVIEW_FILE_NAME);
+            // The result is reported once the preview frame, if sampled, has been written
             previewFrameIndex += 1;
-            detectorListener.onRDTDetected(iprdResult, rdtResult, previewUri, previewFrameIndex, failureReason);
+            final IprdAdapter.Result finalIprdResult = iprdResult;
+            final RDTTracker.RDTPreviewResult finalRdtResult = rdtResult;
+            final int finalPreviewFrameIndex = previewFrameIndex;
+            final String finalFailureReason = failureReason;
+            previewRecorder.submit(imageBitmap, failureReason, new PreviewRecorder.Callback() {
+                @Override
+                public void onRecorded(String previewUri) {
+                    detectorListener.onRDTDetected(finalIprdResult, finalRdtResult, previewUri,
+                            finalPreviewFrameIndex, finalFailureReason);
+                }
+            });
         }
 
 
@@ -566,15 +702,23 @@ public class DetectorView extends LinearLayout implements
             if (rdtResult != null && rdtResult.testArea != null) {
                 Log.d(TAG, "Have good still frame (extracted test area), running inference");
 
-                detectorListener.onRDTInterpreting();
-                final long interpretationStartTimeMs = SystemClock.uptimeMillis();
+                // Sent through the preview recorder, so it follows every onRDTDetected already queued
+                previewRecorder.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        detectorListener.onRDTInterpreting();
+                    }
+                });
+                final long interpretationStartTime = System.nanoTime();
 
-                InterpretationResult interpretationResult = InterpretationTracker.interpretResults(filterResults(
+                final InterpretationResult interpretationResult = InterpretationTracker.interpretResults(filterResults(
                         INTERPRETATION_MINIMUM_CONFIDENCE_TF_OD_API,
                         interpretationDetector.recognizeImage(rdtResult.testArea),
                         false), rdtResult, activity.isDebug());
 
-                Log.i(TAG, "Phase 2 processing time: " + (SystemClock.uptimeMillis() - interpretationStartTimeMs) + "ms");
+                final long interpretationTime = System.nanoTime() - interpretationStartTime;
+                latencies.record(Stage.PHASE_2, interpretationTime);
+                Log.i(TAG, "Phase 2 processing time: " + interpretationTime / 1000000 + "ms");
 
                 interpretationResult.imageUri = saveImage(imageBitmap, RDT_PHOTO_FILE_NAME);
                 interpretationResult.resultWindowImageUri = saveImage(rdtResult.testArea, RDT_TEST_AREA_PHOTO_FILE_NAME);
@@ -583,7 +727,12 @@ public class DetectorView extends LinearLayout implements
                 }
                 if (interpretationResult.imageUri != null) {
                     cameraController.onPause();
-                    detectorListener.onRDTInterpreted(interpretationResult);
+                    previewRecorder.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            detectorListener.onRDTInterpreted(interpretationResult);
+                        }
+                    });
                     return;
                 } else {
                     Log.d(TAG, "Error saving still frame, will try again");
@@ -652,6 +801,7 @@ public class DetectorView extends LinearLayout implements
         handlerThread.quitSafely();
         handlerThread = null;
         handler = null;
+        resourceLoader.onPause();
     }
 
     @Override
@@ -699,6 +849,7 @@ public class DetectorView extends LinearLayout implements
 
     public interface DetectorListener {
         void onRDTCameraReady(boolean supportsTorchMode, int screenWidth, int screenHeight, boolean legacyCamera);
+        // previewUri is null for preview frames that were not sampled for saving
         void onRDTDetected(
                 IprdAdapter.Result iprdResult,
                 RDTTracker.RDTResult rdtResult,
@@ -57,7 +57,9 @@ public class MainApplication extends ExpoApplication implements AppLoaderPackage
               public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
                 return Arrays.<NativeModule>asList(
                     new OpenAppSettingsModule(reactContext),
-                    new FirebaseStorageUploadModule(reactContext)
+                    new FirebaseStorageUploadModule(reactContext),
+                    new RDTReaderStatsModule(reactContext),
+                    new PreviewJournalModule(reactContext)
                 );
               }
 
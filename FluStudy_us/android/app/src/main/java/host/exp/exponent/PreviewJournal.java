@@ -0,0 +1,228 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A ring journal of preview frames on disk. It keeps at most {@code maxFrames}
+ * frames and {@code maxBytes} bytes, and overwrites the oldest frame to make room
+ * for a new one. Every frame gets a new sequence-numbered file, so a URI that has
+ * been handed out always refers to the same frame. A frame React is still using,
+ * such as one queued for upload, is pinned with {@link #pin(String)} and never
+ * evicted until it is released or its file is removed. A new frame is always
+ * recorded; if pinned frames alone fill the journal it goes over its quota until
+ * they are released.
+ *
+ * The index is rebuilt from the directory on first use, so frames left over from
+ * an earlier session count against the quota and are evicted first.
+ */
+public class PreviewJournal {
+    private static final String TAG = "PreviewJournal";
+    private static final Pattern FRAME_NAME = Pattern.compile("preview_(\\d+)\\.jpg");
+    // Preview frames used to be written straight to the files directory and never removed
+    private static final String LEGACY_PREVIEW_SUFFIX = "_rdt_preview.jpg";
+
+    private static class Entry {
+        final long sequence;
+        final File file;
+        final long size;
+        boolean pinned = false;
+
+        Entry(long sequence, File file, long size) {
+            this.sequence = sequence;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private final File directory;
+    private final int maxFrames;
+    private final long maxBytes;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ByteArrayOutputStream jpegBuffer = new ByteArrayOutputStream();
+    private long totalBytes = 0;
+    private long nextSequence = 0;
+    private boolean opened = false;
+
+    public PreviewJournal(File directory, int maxFrames, long maxBytes) {
+        this.directory = directory;
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Compresses a frame and appends it to the journal, evicting the oldest unpinned frames
+     * as needed
+     * @param bitmap the frame
+     * @param jpegQuality the JPEG quality, 0-100
+     * @return the file URI of the frame, or null if it could not be written
+     */
+    public synchronized String append(Bitmap bitmap, int jpegQuality) {
+        if (!open()) {
+            return null;
+        }
+
+        jpegBuffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, jpegBuffer);
+        long size = jpegBuffer.size();
+        makeRoom(size);
+
+        // Write under a temporary name so a reader never sees a partial file
+        long sequence = nextSequence++;
+        File file = new File(directory, "preview_" + sequence + ".jpg");
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            jpegBuffer.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception writing preview frame", e);
+            tmp.delete();
+            return null;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Could not move preview frame into place");
+            tmp.delete();
+            return null;
+        }
+
+        entries.addLast(new Entry(sequence, file, size));
+        totalBytes += size;
+        return Uri.fromFile(file).toString();
+    }
+
+    /**
+     * Keeps a frame until {@link #release(String)} is called or its file is removed
+     * @param uri the file URI returned by {@link #append(Bitmap, int)}
+     * @return false if the frame has already been evicted
+     */
+    public synchronized boolean pin(String uri) {
+        Entry entry = find(uri);
+        if (entry == null || !entry.file.exists()) {
+            return false;
+        }
+        entry.pinned = true;
+        return true;
+    }
+
+    /**
+     * Lets a pinned frame be evicted again. Does nothing if the frame is not in the journal.
+     * @param uri the file URI returned by {@link #append(Bitmap, int)}
+     */
+    public synchronized void release(String uri) {
+        Entry entry = find(uri);
+        if (entry != null) {
+            entry.pinned = false;
+        }
+    }
+
+    private Entry find(String uri) {
+        String path = Uri.parse(uri).getPath();
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        for (Entry entry : entries) {
+            if (entry.file.equals(file)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops frames React has already consumed, then evicts the oldest unpinned frames
+     * until the new one fits or only pinned frames are left
+     */
+    private void makeRoom(long size) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.file.exists()) {
+                iterator.remove();
+                totalBytes -= entry.size;
+            }
+        }
+
+        iterator = entries.iterator();
+        while (iterator.hasNext() && (entries.size() >= maxFrames || totalBytes + size > maxBytes)) {
+            Entry entry = iterator.next();
+            if (!entry.pinned) {
+                iterator.remove();
+                totalBytes -= entry.size;
+                entry.file.delete();
+            }
+        }
+        if (entries.size() >= maxFrames || totalBytes + size > maxBytes) {
+            Log.w(TAG, "Pinned preview frames fill the journal, going over quota");
+        }
+    }
+
+    /**
+     * Builds the index from the frames already on disk, the first time the journal is used
+     */
+    private boolean open() {
+        if (opened) {
+            return true;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create " + directory.getAbsolutePath());
+            return false;
+        }
+
+        List<Entry> found = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = FRAME_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    // Nothing is pinned yet, so frames from an earlier session are evicted first
+                    found.add(new Entry(Long.parseLong(matcher.group(1)), file, file.length()));
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        Collections.sort(found, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+        for (Entry entry : found) {
+            entries.addLast(entry);
+            totalBytes += entry.size;
+            nextSequence = entry.sequence + 1;
+        }
+
+        File[] legacy = directory.getParentFile().listFiles();
+        if (legacy != null) {
+            for (File file : legacy) {
+                if (file.isFile() && file.getName().endsWith(LEGACY_PREVIEW_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+
+        opened = true;
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+
+public class PreviewJournalModule extends ReactContextBaseJavaModule {
+  @Override
+  public String getName() {
+    return "PreviewJournalModule";
+  }
+
+  // Keeps a preview frame from being overwritten until it is released or its
+  // file is deleted. Resolves to false if the frame is already gone.
+  @ReactMethod
+  public void pinPreviewFrame(String uri, Promise promise) {
+    promise.resolve(DetectorView.getPreviewJournal(getReactApplicationContext()).pin(uri));
+  }
+
+  @ReactMethod
+  public void releasePreviewFrame(String uri) {
+    DetectorView.getPreviewJournal(getReactApplicationContext()).release(uri);
+  }
+
+  public PreviewJournalModule(ReactApplicationContext reactContext) {
+    super(reactContext);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a sample of preview frames to a {@link PreviewJournal} off the
+ * inference thread. A frame is recorded every {@code sampleInterval} frames
+ * and whenever its state changes, as long as fewer than {@code maxPending}
+ * writes are queued. Results are delivered in frame order on the recorder
+ * thread, each one after its frame (if recorded) is on disk.
+ */
+public class PreviewRecorder {
+    private static final String TAG = "PreviewRecorder";
+
+    public interface Callback {
+        /**
+         * Called on the recorder thread, in the order frames were submitted
+         * @param uri the file URI of the recorded frame, or null if it was not recorded
+         */
+        void onRecorded(String uri);
+    }
+
+    private final PreviewJournal journal;
+    private final int sampleInterval;
+    private final int jpegQuality;
+    private final int maxPending;
+
+    // A single worker keeps results in order; it exits when idle so an unused recorder holds no thread
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final LinkedList<Bitmap> freeBitmaps = new LinkedList<>();
+    private int pendingWrites = 0;
+    private int framesSinceRecorded = 0;
+    private String lastState = null;
+
+    public PreviewRecorder(PreviewJournal journal, int sampleInterval, int jpegQuality, int maxPending) {
+        this.journal = journal;
+        this.sampleInterval = sampleInterval;
+        this.jpegQuality = jpegQuality;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Queues a frame and its callback without blocking on compression or disk. The frame is
+     * copied if it is going to be recorded, so the caller can reuse it right away.
+     * @param frame the preview frame
+     * @param state a description of the frame's outcome; a change always records the frame
+     * @param callback receives the URI once the frame is on disk
+     */
+    public void submit(Bitmap frame, String state, final Callback callback) {
+        final Bitmap copy = shouldRecord(state) ? obtainCopy(frame) : null;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String uri = null;
+                if (copy != null) {
+                    uri = journal.append(copy, jpegQuality);
+                    recycle(copy);
+                }
+                callback.onRecorded(uri);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the recorder thread after the results of every frame already submitted,
+     * so events sent from it stay in order with theirs
+     * @param task the task to run
+     */
+    public void post(Runnable task) {
+        executor.execute(task);
+    }
+
+    private synchronized boolean shouldRecord(String state) {
+        // The state only counts as seen once a frame in it is recorded, so a change that
+        // is skipped because writes are backed up is recorded with the next frame
+        boolean stateChanged = lastState == null || !lastState.equals(state);
+        framesSinceRecorded++;
+        if (!stateChanged && framesSinceRecorded < sampleInterval) {
+            return false;
+        }
+        if (pendingWrites >= maxPending) {
+            Log.d(TAG, "Skipping preview frame, " + pendingWrites + " writes pending");
+            return false;
+        }
+        lastState = state;
+        framesSinceRecorded = 0;
+        pendingWrites++;
+        return true;
+    }
+
+    private Bitmap obtainCopy(Bitmap frame) {
+        Bitmap copy;
+        synchronized (this) {
+            copy = freeBitmaps.isEmpty() ? null : freeBitmaps.removeFirst();
+        }
+        if (copy == null || copy.getWidth() != frame.getWidth() || copy.getHeight() != frame.getHeight()) {
+            copy = Bitmap.createBitmap(frame.getWidth(), frame.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+        new Canvas(copy).drawBitmap(frame, 0, 0, null);
+        return copy;
+    }
+
+    private synchronized void recycle(Bitmap copy) {
+        pendingWrites--;
+        if (freeBitmaps.size() < maxPending) {
+            freeBitmaps.addLast(copy);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+
+import host.exp.exponent.env.LatencyRecorder;
+
+public class RDTReaderStatsModule extends ReactContextBaseJavaModule {
+  @Override
+  public String getName() {
+    return "RDTReaderStatsModule";
+  }
+
+  // Resolves to a map from detector stage name to {count, p50, p95, p99, max},
+  // with the latencies in milliseconds. Stages that have not run yet are left
+  // out.
+  @ReactMethod
+  public void getStageLatencies(Promise promise) {
+    WritableMap result = Arguments.createMap();
+    for (LatencyRecorder.StageSummary summary : DetectorView.getLatencySummaries()) {
+      WritableMap stage = Arguments.createMap();
+      stage.putDouble("count", summary.count);
+      stage.putDouble("p50", summary.p50Ms);
+      stage.putDouble("p95", summary.p95Ms);
+      stage.putDouble("p99", summary.p99Ms);
+      stage.putDouble("max", summary.maxMs);
+      result.putMap(summary.stage, stage);
+    }
+    promise.resolve(result);
+  }
+
+  @ReactMethod
+  public void resetStageLatencies() {
+    DetectorView.resetLatencies();
+  }
+
+  public RDTReaderStatsModule(ReactApplicationContext reactContext) {
+    super(reactContext);
+  }
+}
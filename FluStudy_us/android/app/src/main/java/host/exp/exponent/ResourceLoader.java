@@ -10,7 +10,17 @@ import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import host.exp.exponent.tflite.Accelerator;
+import host.exp.exponent.tflite.AcceleratorBenchmark;
+import host.exp.exponent.tflite.AcceleratorPreferences;
 import host.exp.exponent.tflite.Classifier;
 import host.exp.exponent.tflite.TFLiteObjectDetectionAPIModel;
 
@@ -30,9 +40,26 @@ public class ResourceLoader {
     private static final int TF_OD_API_INPUT_SIZE = 300;
     private static final boolean TF_OD_API_IS_QUANTIZED = true;
 
+    // A delegate is only chosen over the plain CPU if its median run is at least this much faster
+    private static final double ACCELERATOR_MIN_SPEEDUP = 1.1;
+
+    // A benchmark still unfinished after this many launches is assumed to crash the process
+    private static final int MAX_BENCHMARK_ATTEMPTS = 2;
+
+    // Models are benchmarked one at a time, in the background, once the camera pipeline that
+    // first loaded them pauses, so the benchmark does not compete with live inference. The
+    // choice takes effect the next time the model is loaded.
+    private static final ThreadPoolExecutor benchmarkExecutor = new ThreadPoolExecutor(
+            0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    private static final Set<String> benchmarksQueued = new HashSet<>();
+    private static final List<String> pendingBenchmarks = new ArrayList<>();
+
+    private AcceleratorPreferences acceleratorPreferences;
+
     public ResourceLoader(Context context, final AssetManager assetManager) {
         applicationContext = context.getApplicationContext();
         this.assetManager = assetManager;
+        acceleratorPreferences = new AcceleratorPreferences(applicationContext);
         openCvLoaderCallback = new BaseLoaderCallback(applicationContext) {
             @Override
             public void onManagerConnected(int status) {
@@ -55,6 +82,24 @@ public class ResourceLoader {
         loadOpenCV(applicationContext, openCvLoaderCallback);
     }
 
+    /**
+     * Called once the camera pipeline has stopped; starts any accelerator benchmarks that are
+     * waiting for the device to be idle.
+     */
+    public void onPause() {
+        synchronized (benchmarksQueued) {
+            for (final String modelFilename : pendingBenchmarks) {
+                benchmarkExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        benchmark(modelFilename);
+                    }
+                });
+            }
+            pendingBenchmarks.clear();
+        }
+    }
+
     private static void loadOpenCV(Context context, BaseLoaderCallback mLoaderCallback) {
         if (!OpenCVLoader.initDebug()) {
             Log.d(TAG, "Internal OpenCV library not found. Using OpenCV Manager for initialization");
@@ -77,7 +122,8 @@ public class ResourceLoader {
                     BOX_TF_OD_API_LABELS_FILE,
                     TF_OD_API_INPUT_SIZE,
                     TF_OD_API_IS_QUANTIZED,
-                    "phase 1");
+                    "phase 1",
+                    getAccelerator(BOX_TF_OD_API_MODEL_FILE));
         } catch (final IOException e) {
             e.printStackTrace();
             Log.e(TAG, "Exception initializing classifier!");
@@ -96,7 +142,8 @@ public class ResourceLoader {
                     INTERPRETATION_TF_OD_API_LABELS_FILE,
                     TF_OD_API_INPUT_SIZE,
                     TF_OD_API_IS_QUANTIZED,
-                    "phase 2");
+                    "phase 2",
+                    getAccelerator(INTERPRETATION_TF_OD_API_MODEL_FILE));
         } catch (final IOException e) {
             e.printStackTrace();
             Log.e(TAG, "Exception initializing classifier!");
@@ -106,4 +153,45 @@ public class ResourceLoader {
         }
         return null;
     }
+
+    /**
+     * Returns the accelerator saved for a model, or the CPU until a benchmark has chosen one
+     */
+    private Accelerator getAccelerator(final String modelFilename) {
+        Accelerator accelerator = acceleratorPreferences.get(modelFilename);
+        if (accelerator != null) {
+            return accelerator;
+        }
+        synchronized (benchmarksQueued) {
+            if (benchmarksQueued.contains(modelFilename)) {
+                return Accelerator.CPU;
+            }
+            // Benchmarks left unfinished by earlier launches most likely crashed in a delegate
+            int unfinished = acceleratorPreferences.getUnfinishedBenchmarks(modelFilename);
+            if (unfinished >= MAX_BENCHMARK_ATTEMPTS) {
+                Log.w(TAG, "Giving up on benchmarking " + modelFilename + " after "
+                        + unfinished + " unfinished attempts");
+                acceleratorPreferences.put(modelFilename, Accelerator.CPU);
+            } else {
+                benchmarksQueued.add(modelFilename);
+                pendingBenchmarks.add(modelFilename);
+            }
+        }
+        return Accelerator.CPU;
+    }
+
+    private void benchmark(String modelFilename) {
+        // Left on disk if a delegate crashes the process, and counted on the next launch
+        acceleratorPreferences.startBenchmark(modelFilename);
+        try {
+            List<AcceleratorBenchmark.Result> results =
+                    TFLiteObjectDetectionAPIModel.benchmark(assetManager, modelFilename);
+            Log.i(TAG, "Accelerator benchmark for " + modelFilename + ": " + results);
+            Accelerator accelerator =
+                    AcceleratorBenchmark.choose(results, Accelerator.CPU, ACCELERATOR_MIN_SPEEDUP);
+            acceleratorPreferences.put(modelFilename, accelerator != null ? accelerator : Accelerator.CPU);
+        } catch (final Exception e) {
+            Log.e(TAG, "Exception benchmarking " + modelFilename, e);
+        }
+    }
 }
@@ -129,6 +129,50 @@ public class ImageUtils {
         return matrix;
     }
 
+    /**
+     * Resamples an ARGB image into another through an affine transformation, taking the nearest
+     * source pixel like an unfiltered Canvas.drawBitmap does. Resizing and rotating this way
+     * avoids drawing into an intermediate bitmap.
+     *
+     * @param src The source pixels.
+     * @param srcWidth Width of the source image.
+     * @param srcHeight Height of the source image.
+     * @param dstToSrc The values (see Matrix.getValues) of the transformation from destination to
+     *     source coordinates. Perspective is ignored.
+     * @param dst The destination pixels.
+     * @param dstWidth Width of the destination image.
+     * @param dstHeight Height of the destination image.
+     */
+    public static void transformARGB8888(
+            final int[] src,
+            final int srcWidth,
+            final int srcHeight,
+            final float[] dstToSrc,
+            final int[] dst,
+            final int dstWidth,
+            final int dstHeight) {
+        final float scaleX = dstToSrc[Matrix.MSCALE_X];
+        final float skewX = dstToSrc[Matrix.MSKEW_X];
+        final float skewY = dstToSrc[Matrix.MSKEW_Y];
+        final float scaleY = dstToSrc[Matrix.MSCALE_Y];
+        final int maxX = srcWidth - 1;
+        final int maxY = srcHeight - 1;
+
+        int dp = 0;
+        for (int j = 0; j < dstHeight; j++) {
+            // Sample at pixel centers
+            final float rowX = skewX * (j + 0.5f) + dstToSrc[Matrix.MTRANS_X];
+            final float rowY = scaleY * (j + 0.5f) + dstToSrc[Matrix.MTRANS_Y];
+            for (int i = 0; i < dstWidth; i++, dp++) {
+                int sx = (int) (rowX + scaleX * (i + 0.5f));
+                int sy = (int) (rowY + skewY * (i + 0.5f));
+                sx = sx > maxX ? maxX : (sx < 0 ? 0 : sx);
+                sy = sy > maxY ? maxY : (sy < 0 ? 0 : sy);
+                dst[dp] = src[sy * srcWidth + sx];
+            }
+        }
+    }
+
     /**
      * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
      * dimensions.
@@ -0,0 +1,36 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent.tflite;
+
+import org.tensorflow.lite.Interpreter;
+
+/** The ways a TensorFlow Lite interpreter can execute a model. */
+public enum Accelerator {
+    /** The built-in CPU kernels. */
+    CPU,
+    /** The XNNPACK CPU delegate, which has faster kernels for float models. */
+    XNNPACK,
+    /** Android's Neural Networks API, which may run the model on a DSP, NPU or GPU. */
+    NNAPI;
+
+    /**
+     * @param numThreads The number of threads to use for work done on the CPU.
+     * @return Interpreter options that select this accelerator. CPU leaves the interpreter's
+     *     defaults alone.
+     */
+    public Interpreter.Options createOptions(int numThreads) {
+        Interpreter.Options options = new Interpreter.Options().setNumThreads(numThreads);
+        switch (this) {
+            case XNNPACK:
+                options.setUseXNNPACK(true);
+                break;
+            case NNAPI:
+                options.setUseNNAPI(true);
+                break;
+        }
+        return options;
+    }
+}
@@ -0,0 +1,230 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Times a model under each candidate accelerator to find the fastest one that works on this
+ * device. It uses only the TensorFlow Lite Java API, so it also runs on a desktop JVM with the
+ * CPU and XNNPACK candidates.
+ *
+ * The timed runs take turns between the candidates, so anything else running on the device
+ * slows them all down about equally.
+ */
+public class AcceleratorBenchmark {
+    /** The outcome of benchmarking one accelerator. */
+    public static class Result {
+        public final Accelerator accelerator;
+        /** The median time of a run, or Long.MAX_VALUE if the accelerator failed. */
+        public final long medianNanos;
+        /** Why the accelerator failed, or null if it is stable. */
+        public final String failure;
+
+        Result(Accelerator accelerator, long medianNanos, String failure) {
+            this.accelerator = accelerator;
+            this.medianNanos = medianNanos;
+            this.failure = failure;
+        }
+
+        public boolean isStable() {
+            return failure == null;
+        }
+
+        @Override
+        public String toString() {
+            return isStable()
+                    ? String.format("%s: %.1fms", accelerator, medianNanos / 1e6)
+                    : accelerator + ": failed (" + failure + ")";
+        }
+    }
+
+    private static class Candidate {
+        final Accelerator accelerator;
+        Interpreter interpreter;
+        Object[] inputs;
+        Map<Integer, Object> outputs;
+        long[] times;
+        String failure;
+
+        Candidate(Accelerator accelerator, int timedRuns) {
+            this.accelerator = accelerator;
+            this.times = new long[timedRuns];
+        }
+    }
+
+    private final ByteBuffer model;
+    private final int numThreads;
+    private final int warmupRuns;
+    private final int timedRuns;
+
+    /**
+     * @param model The model, for example from TFLiteObjectDetectionAPIModel.loadModelFile.
+     * @param numThreads The number of CPU threads each interpreter may use.
+     * @param warmupRuns Untimed runs before timing starts, which absorb one-time setup costs.
+     * @param timedRuns Timed runs whose median is reported.
+     */
+    public AcceleratorBenchmark(ByteBuffer model, int numThreads, int warmupRuns, int timedRuns) {
+        this.model = model;
+        this.numThreads = numThreads;
+        this.warmupRuns = warmupRuns;
+        this.timedRuns = timedRuns;
+    }
+
+    /**
+     * Benchmarks each candidate on an all-zero input. A candidate is stable if its interpreter
+     * can be created, every run succeeds and its float outputs are all finite.
+     *
+     * @param candidates The accelerators to try.
+     * @return One result per candidate, in the same order.
+     */
+    public List<Result> run(Accelerator... candidates) {
+        List<Candidate> running = new ArrayList<>();
+        for (Accelerator accelerator : candidates) {
+            Candidate candidate = new Candidate(accelerator, timedRuns);
+            try {
+                candidate.interpreter = new Interpreter(model, accelerator.createOptions(numThreads));
+                allocateBuffers(candidate);
+                for (int i = 0; i < warmupRuns; i++) {
+                    runOnce(candidate);
+                }
+            } catch (Exception | LinkageError e) {
+                fail(candidate, e);
+            }
+            running.add(candidate);
+        }
+
+        try {
+            for (int run = 0; run < timedRuns; run++) {
+                for (Candidate candidate : running) {
+                    if (candidate.failure != null) {
+                        continue;
+                    }
+                    try {
+                        long start = System.nanoTime();
+                        runOnce(candidate);
+                        candidate.times[run] = System.nanoTime() - start;
+                    } catch (Exception e) {
+                        fail(candidate, e);
+                    }
+                }
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Candidate candidate : running) {
+                if (candidate.failure == null && !outputsFinite(candidate)) {
+                    candidate.failure = "non-finite output";
+                }
+                if (candidate.failure != null) {
+                    results.add(new Result(candidate.accelerator, Long.MAX_VALUE, candidate.failure));
+                } else {
+                    Arrays.sort(candidate.times);
+                    results.add(new Result(candidate.accelerator, candidate.times[timedRuns / 2], null));
+                }
+            }
+            return results;
+        } finally {
+            for (Candidate candidate : running) {
+                if (candidate.interpreter != null) {
+                    candidate.interpreter.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the fastest stable accelerator. An accelerator other than the baseline must beat it
+     * by minSpeedup to be chosen, so noise alone never moves a model off the baseline.
+     *
+     * @param results The results of {@link #run}.
+     * @param baseline The accelerator to prefer when nothing is clearly faster.
+     * @param minSpeedup The factor by which the baseline's time must be beaten, such as 1.1.
+     * @return The chosen accelerator, or null if no candidate was stable.
+     */
+    public static Accelerator choose(List<Result> results, Accelerator baseline, double minSpeedup) {
+        Result best = null;
+        Result baselineResult = null;
+        for (Result result : results) {
+            if (!result.isStable()) {
+                continue;
+            }
+            if (result.accelerator == baseline) {
+                baselineResult = result;
+            }
+            if (best == null || result.medianNanos < best.medianNanos) {
+                best = result;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        if (baselineResult != null && best.medianNanos * minSpeedup > baselineResult.medianNanos) {
+            return baseline;
+        }
+        return best.accelerator;
+    }
+
+    /** Runs the model once. The buffers are reused, so each run starts them from the beginning. */
+    private static void runOnce(Candidate candidate) {
+        for (Object input : candidate.inputs) {
+            ((ByteBuffer) input).rewind();
+        }
+        for (Object output : candidate.outputs.values()) {
+            ((ByteBuffer) output).rewind();
+        }
+        candidate.interpreter.runForMultipleInputsOutputs(candidate.inputs, candidate.outputs);
+    }
+
+    private void fail(Candidate candidate, Throwable e) {
+        candidate.failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+        if (candidate.interpreter != null) {
+            candidate.interpreter.close();
+            candidate.interpreter = null;
+        }
+    }
+
+    private static void allocateBuffers(Candidate candidate) {
+        Interpreter interpreter = candidate.interpreter;
+        candidate.inputs = new Object[interpreter.getInputTensorCount()];
+        for (int i = 0; i < candidate.inputs.length; i++) {
+            candidate.inputs[i] = ByteBuffer.allocateDirect(interpreter.getInputTensor(i).numBytes())
+                    .order(ByteOrder.nativeOrder());
+        }
+        candidate.outputs = new HashMap<>();
+        for (int i = 0; i < interpreter.getOutputTensorCount(); i++) {
+            candidate.outputs.put(i, ByteBuffer.allocateDirect(interpreter.getOutputTensor(i).numBytes())
+                    .order(ByteOrder.nativeOrder()));
+        }
+    }
+
+    private static boolean outputsFinite(Candidate candidate) {
+        for (Map.Entry<Integer, Object> output : candidate.outputs.entrySet()) {
+            if (candidate.interpreter.getOutputTensor(output.getKey()).dataType() != DataType.FLOAT32) {
+                continue;
+            }
+            ByteBuffer buffer = (ByteBuffer) output.getValue();
+            buffer.rewind();
+            FloatBuffer values = buffer.asFloatBuffer();
+            while (values.hasRemaining()) {
+                float value = values.get();
+                if (Float.isNaN(value) || Float.isInfinite(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
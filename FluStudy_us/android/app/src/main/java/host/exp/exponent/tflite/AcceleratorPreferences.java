@@ -0,0 +1,75 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * Remembers the accelerator chosen for each model. Choices are keyed by device model and OS
+ * version as well, so an OS update (which can change NNAPI drivers) triggers a new benchmark.
+ * It also counts benchmarks that were started but never finished, so one that crashes the
+ * process is not retried forever.
+ */
+public class AcceleratorPreferences {
+    private static final String PREFERENCES_NAME = "tflite_accelerators";
+
+    private final SharedPreferences preferences;
+
+    public AcceleratorPreferences(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param modelFilename The model's asset name.
+     * @return The saved accelerator, or null if the model has not been benchmarked on this device.
+     */
+    public Accelerator get(String modelFilename) {
+        String name = preferences.getString(key(modelFilename), null);
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Accelerator.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Saves an accelerator and clears the model's unfinished benchmark count. */
+    public void put(String modelFilename, Accelerator accelerator) {
+        preferences.edit()
+                .putString(key(modelFilename), accelerator.name())
+                .remove(attemptsKey(modelFilename))
+                .commit();
+    }
+
+    /**
+     * Records that a benchmark of the model is starting. Saved synchronously, so it is on disk
+     * before any delegate runs; it stays there until {@link #put} saves the benchmark's choice.
+     */
+    public void startBenchmark(String modelFilename) {
+        String key = attemptsKey(modelFilename);
+        preferences.edit().putInt(key, preferences.getInt(key, 0) + 1).commit();
+    }
+
+    /**
+     * @param modelFilename The model's asset name.
+     * @return The number of benchmarks of the model that started but never saved a choice.
+     */
+    public int getUnfinishedBenchmarks(String modelFilename) {
+        return preferences.getInt(attemptsKey(modelFilename), 0);
+    }
+
+    private static String key(String modelFilename) {
+        return modelFilename + "/" + Build.MODEL + "/" + Build.VERSION.SDK_INT;
+    }
+
+    private static String attemptsKey(String modelFilename) {
+        return key(modelFilename) + "/attempts";
+    }
+}
@@ -9,39 +9,68 @@ import android.graphics.Bitmap;
 import android.graphics.RectF;
 import java.util.List;
 
-/** Generic interface for interacting with different recognition engines. */
+/**
+ * Generic interface for interacting with different recognition engines. To avoid allocating on
+ * every frame, the list returned by a recognize call and the recognitions in it may be reused by
+ * the next call; copy any recognition that needs to be kept.
+ */
 public interface Classifier {
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Like {@link #recognizeImage(Bitmap)}, for an image that is already the size of the model input.
+     *
+     * @param pixels The ARGB pixels of the image, row by row.
+     */
+    List<Recognition> recognizePixels(int[] pixels);
+
     void close();
 
-    /** An immutable result returned by a Classifier describing what was recognized. */
+    /** A result returned by a Classifier describing what was recognized. */
     class Recognition {
         /**
          * A unique identifier for what has been recognized. Specific to the class, not the instance of
          * the object.
          */
-        private final String id;
+        private String id;
 
         /** Display name for the recognition. */
-        private final String title;
+        private String title;
 
         /**
          * A sortable score for how good the recognition is relative to others. Higher should be better.
          */
-        private final Float confidence;
+        private float confidence;
 
         /** Optional location within the source image for the location of the recognized object. */
         private RectF location;
 
         public Recognition(
-                final String id, final String title, final Float confidence, final RectF location) {
+                final String id, final String title, final float confidence, final RectF location) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
             this.location = location;
         }
 
+        /** Copies a recognition, including its location. */
+        public Recognition(final Recognition other) {
+            this(other.id, other.title, other.confidence,
+                    other.location != null ? new RectF(other.location) : null);
+        }
+
+        /** Overwrites a pooled recognition in place, reusing its location. */
+        void set(final String id, final String title, final float confidence,
+                 final float left, final float top, final float right, final float bottom) {
+            this.id = id;
+            this.title = title;
+            this.confidence = confidence;
+            if (location == null) {
+                location = new RectF();
+            }
+            location.set(left, top, right, bottom);
+        }
+
         public String getId() {
             return id;
         }
@@ -50,7 +79,7 @@ public interface Classifier {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
@@ -73,9 +102,7 @@ public interface Classifier {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
             if (location != null) {
                 resultString += location + " ";
@@ -19,6 +19,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -43,12 +44,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     private static final float IMAGE_STD = 128.0f;
     // Number of threads in the java app
     private static final int NUM_THREADS = 4;
+    // Runs per accelerator when benchmarking; the first runs include delegate setup and are not timed
+    private static final int BENCHMARK_WARMUP_RUNS = 3;
+    private static final int BENCHMARK_TIMED_RUNS = 10;
     private boolean isModelQuantized;
     // Config values.
     private int inputSize;
     // Pre-allocated buffers.
     private Vector<String> labels = new Vector<String>();
     private int[] intValues;
+    // The input channels, packed here and copied into imgData in one bulk put
+    private byte[] byteValues;
+    private float[] floatValues;
     // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
     // contains the location of detected boxes
     private float[][][] outputLocations;
@@ -63,10 +70,19 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     private float[] numDetections;
 
     private ByteBuffer imgData;
+    private FloatBuffer floatData;
+    private Object[] inputArray;
+    private Map<Integer, Object> outputMap;
+
+    // Results are written into these on every call rather than allocated
+    private Recognition[] recognitionPool;
+    private String[] recognitionIds;
+    private ArrayList<Recognition> recognitions;
 
     private Interpreter tfLite;
 
     private String phase;
+    private String runSection;
 
     private TFLiteObjectDetectionAPIModel() {}
 
@@ -81,6 +97,21 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
+    /**
+     * Times the model on each accelerator with the same thread count that create() uses.
+     *
+     * @param assetManager The asset manager to be used to load assets.
+     * @param modelFilename The filepath of the model GraphDef protocol buffer.
+     * @return One result per accelerator.
+     */
+    public static List<AcceleratorBenchmark.Result> benchmark(
+            final AssetManager assetManager, final String modelFilename) throws IOException {
+        AcceleratorBenchmark benchmark = new AcceleratorBenchmark(
+                loadModelFile(assetManager, modelFilename),
+                NUM_THREADS, BENCHMARK_WARMUP_RUNS, BENCHMARK_TIMED_RUNS);
+        return benchmark.run(Accelerator.values());
+    }
+
     /**
      * Initializes a native TensorFlow session for classifying images.
      *
@@ -89,6 +120,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
      * @param labelFilename The filepath of label file for classes.
      * @param inputSize The size of image input
      * @param isQuantized Boolean representing model is quantized or not
+     * @param accelerator How to execute the model; falls back to the CPU if it cannot be used
      */
     public static Classifier create(
             final AssetManager assetManager,
@@ -96,7 +128,8 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             final String labelFilename,
             final int inputSize,
             final boolean isQuantized,
-            final String phase)
+            final String phase,
+            final Accelerator accelerator)
             throws IOException {
         final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
 
@@ -115,9 +148,19 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         d.inputSize = inputSize;
 
         try {
-            d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+            d.tfLite = new Interpreter(
+                    loadModelFile(assetManager, modelFilename), accelerator.createOptions(NUM_THREADS));
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            if (accelerator == Accelerator.CPU) {
+                throw new RuntimeException(e);
+            }
+            Log.w(TAG, "Could not use " + accelerator + " for " + phase + ", falling back to CPU", e);
+            try {
+                d.tfLite = new Interpreter(
+                        loadModelFile(assetManager, modelFilename), Accelerator.CPU.createOptions(NUM_THREADS));
+            } catch (Exception cpuException) {
+                throw new RuntimeException(cpuException);
+            }
         }
 
         d.isModelQuantized = isQuantized;
@@ -131,86 +174,100 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
         d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
         d.imgData.order(ByteOrder.nativeOrder());
         d.intValues = new int[d.inputSize * d.inputSize];
+        if (isQuantized) {
+            d.byteValues = new byte[d.inputSize * d.inputSize * 3];
+        } else {
+            d.floatData = d.imgData.asFloatBuffer();
+            d.floatValues = new float[d.inputSize * d.inputSize * 3];
+        }
 
-        d.tfLite.setNumThreads(NUM_THREADS);
         d.outputLocations = new float[1][NUM_DETECTIONS][4];
         d.outputClasses = new float[1][NUM_DETECTIONS];
         d.outputScores = new float[1][NUM_DETECTIONS];
         d.numDetections = new float[1];
+        d.inputArray = new Object[] {d.imgData};
+        d.outputMap = new HashMap<>();
+        d.outputMap.put(0, d.outputLocations);
+        d.outputMap.put(1, d.outputClasses);
+        d.outputMap.put(2, d.outputScores);
+        d.outputMap.put(3, d.numDetections);
+
+        d.recognitionPool = new Recognition[NUM_DETECTIONS];
+        d.recognitionIds = new String[NUM_DETECTIONS];
+        for (int i = 0; i < NUM_DETECTIONS; ++i) {
+            d.recognitionIds[i] = "" + i;
+            d.recognitionPool[i] = new Recognition(d.recognitionIds[i], null, 0f, new RectF());
+        }
+        d.recognitions = new ArrayList<>(NUM_DETECTIONS);
+
         d.phase = phase;
+        d.runSection = "run " + phase;
         return d;
     }
 
     @Override
     public List<Recognition> recognizeImage(final Bitmap bitmap) {
+        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return recognizePixels(intValues);
+    }
+
+    @Override
+    public List<Recognition> recognizePixels(final int[] pixels) {
         // Log this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
 
         Trace.beginSection("preprocessBitmap");
         // Preprocess the image data from 0-255 int to normalized float based
         // on the provided parameters.
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
+        final int pixelCount = inputSize * inputSize;
         imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                    imgData.put((byte) (pixelValue & 0xFF));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
+        if (isModelQuantized) {
+            for (int i = 0, p = 0; i < pixelCount; ++i) {
+                final int pixelValue = pixels[i];
+                byteValues[p++] = (byte) (pixelValue >> 16);
+                byteValues[p++] = (byte) (pixelValue >> 8);
+                byteValues[p++] = (byte) pixelValue;
+            }
+            imgData.put(byteValues);
+        } else {
+            for (int i = 0, p = 0; i < pixelCount; ++i) {
+                final int pixelValue = pixels[i];
+                floatValues[p++] = (((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD;
+                floatValues[p++] = (((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD;
+                floatValues[p++] = ((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD;
             }
+            floatData.rewind();
+            floatData.put(floatValues);
         }
+        imgData.rewind();
         Trace.endSection(); // preprocessBitmap
 
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
-
-        Object[] inputArray = {imgData};
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, outputLocations);
-        outputMap.put(1, outputClasses);
-        outputMap.put(2, outputScores);
-        outputMap.put(3, numDetections);
-        Trace.endSection();
-
-        // Run the inference call.
-        Trace.beginSection("run " + phase);
+        // Run the inference call. The input buffer and output arrays are
+        // allocated once in create() and overwritten by every run.
+        Trace.beginSection(runSection);
         tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
         Trace.endSection();
 
         // Show the best detections.
         // after scaling them back to the input size.
-        final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
+        recognitions.clear();
         for (int i = 0; i < NUM_DETECTIONS; ++i) {
-            final RectF detection =
-                    new RectF(
-                            outputLocations[0][i][1] * inputSize,
-                            outputLocations[0][i][0] * inputSize,
-                            outputLocations[0][i][3] * inputSize,
-                            outputLocations[0][i][2] * inputSize);
             // SSD Mobilenet V1 Model assumes class 0 is background class
             // in label file and class labels start from 1 to number_of_classes+1,
             // while outputClasses correspond to class index from 0 to number_of_classes
             int labelOffset = 1;
             int classLabel = (int) outputClasses[0][i] + labelOffset;
             if (inRange(classLabel, labels.size(), 0) && inRange(outputScores[0][i], 1, 0)) {
-                recognitions.add(
-                        new Recognition(
-                                "" + i,
-                                labels.get(classLabel),
-                                outputScores[0][i],
-                                detection));
+                final Recognition recognition = recognitionPool[i];
+                recognition.set(
+                        recognitionIds[i],
+                        labels.get(classLabel),
+                        outputScores[0][i],
+                        outputLocations[0][i][1] * inputSize,
+                        outputLocations[0][i][0] * inputSize,
+                        outputLocations[0][i][3] * inputSize,
+                        outputLocations[0][i][2] * inputSize);
+                recognitions.add(recognition);
             }
         }
         Trace.endSection(); // "recognizeImage"
@@ -0,0 +1,129 @@
+// Copyright (c) 2019 by Audere
+//
+// Use of this source code is governed by an MIT-style license that
+// can be found in the LICENSE file distributed with this file.
+
+package host.exp.exponent.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.tensorflow.lite.TensorFlowLite;
+
+public class AcceleratorBenchmarkTest {
+    private static final double MIN_SPEEDUP = 1.1;
+
+    private static AcceleratorBenchmark.Result stable(Accelerator accelerator, long medianMillis) {
+        return new AcceleratorBenchmark.Result(accelerator, medianMillis * 1000000, null);
+    }
+
+    private static AcceleratorBenchmark.Result failed(Accelerator accelerator) {
+        return new AcceleratorBenchmark.Result(accelerator, Long.MAX_VALUE, "IllegalArgumentException: test");
+    }
+
+    @Test
+    public void choosesTheFastestStableAccelerator() {
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                stable(Accelerator.CPU, 20), stable(Accelerator.XNNPACK, 10), stable(Accelerator.NNAPI, 15));
+        assertEquals(Accelerator.XNNPACK, AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    @Test
+    public void ignoresUnstableAccelerators() {
+        // An unstable result is never chosen, even if its time looks fast
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                stable(Accelerator.CPU, 20),
+                stable(Accelerator.XNNPACK, 15),
+                new AcceleratorBenchmark.Result(Accelerator.NNAPI, 1000000, "non-finite output"));
+        assertEquals(Accelerator.XNNPACK, AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    @Test
+    public void keepsTheBaselineWithinTheMargin() {
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                stable(Accelerator.CPU, 100), stable(Accelerator.XNNPACK, 95), failed(Accelerator.NNAPI));
+        assertEquals(Accelerator.CPU, AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    @Test
+    public void leavesTheBaselineBeyondTheMargin() {
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                stable(Accelerator.CPU, 100), stable(Accelerator.XNNPACK, 90), failed(Accelerator.NNAPI));
+        assertEquals(Accelerator.XNNPACK, AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    @Test
+    public void appliesNoMarginWhenTheBaselineFailed() {
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                failed(Accelerator.CPU), stable(Accelerator.XNNPACK, 100), stable(Accelerator.NNAPI, 99));
+        assertEquals(Accelerator.NNAPI, AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    @Test
+    public void returnsNullWhenEveryAcceleratorFailed() {
+        List<AcceleratorBenchmark.Result> results = Arrays.asList(
+                failed(Accelerator.CPU), failed(Accelerator.XNNPACK), failed(Accelerator.NNAPI));
+        assertNull(AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    /**
+     * Benchmarks a float model computing x + x on a [1, 4] tensor. Skipped unless the
+     * TensorFlow Lite native library for the host is on java.library.path.
+     */
+    @Test
+    public void benchmarksCpuAndXnnpackOnATinyModel() throws IOException {
+        Assume.assumeTrue("TensorFlow Lite natives are not available", hasNativeLibrary());
+
+        AcceleratorBenchmark benchmark = new AcceleratorBenchmark(loadModel("add.tflite"), 1, 1, 5);
+        List<AcceleratorBenchmark.Result> results = benchmark.run(Accelerator.CPU, Accelerator.XNNPACK);
+
+        assertEquals(2, results.size());
+        assertEquals(Accelerator.CPU, results.get(0).accelerator);
+        assertEquals(Accelerator.XNNPACK, results.get(1).accelerator);
+        for (AcceleratorBenchmark.Result result : results) {
+            assertTrue(result.toString(), result.isStable());
+            assertTrue(result.toString(), result.medianNanos > 0 && result.medianNanos < Long.MAX_VALUE);
+        }
+        assertNotNull(AcceleratorBenchmark.choose(results, Accelerator.CPU, MIN_SPEEDUP));
+    }
+
+    private static boolean hasNativeLibrary() {
+        try {
+            TensorFlowLite.init();
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private ByteBuffer loadModel(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream(name);
+        assertNotNull(name, in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        ByteBuffer model = ByteBuffer.allocateDirect(bytes.size()).order(ByteOrder.nativeOrder());
+        model.put(bytes.toByteArray());
+        model.rewind();
+        return model;
+    }
+}
@@ -1,4 +1,8 @@
-import { Platform, requireNativeComponent } from "react-native";
+import {
+  NativeModules,
+  Platform,
+  requireNativeComponent,
+} from "react-native";
 import * as React from "react";
 import { RDTReaderExposureResult } from "audere-lib/chillsProtocol";
 
@@ -6,7 +10,7 @@ const NativeRDTReader = requireNativeComponent("RDTReader");
 
 type InternalRDTCapturedArgs = {
   imageUri: string;
-  previewUri: string;
+  previewUri?: string;
   previewFrameIndex: number;
   resultWindowImageUri: string;
   testStripDetected: boolean;
@@ -27,7 +31,7 @@ type InternalRDTCapturedArgs = {
 
 export type RDTCapturedArgs = {
   imageUri: string;
-  previewUri: string;
+  previewUri?: string;
   previewFrameIndex: number;
   resultWindowImageUri: string;
   testStripDetected: boolean;
@@ -46,6 +50,16 @@ export type RDTCapturedArgs = {
   phase2Recognitions?: string[];
 };
 
+// Keeps a preview frame from being overwritten by newer ones until it is
+// released or its file is deleted. Resolves to false if it is already gone.
+export function pinPreviewFrame(previewUri: string): Promise<boolean> {
+  return NativeModules.PreviewJournalModule.pinPreviewFrame(previewUri);
+}
+
+export function releasePreviewFrame(previewUri: string): void {
+  NativeModules.PreviewJournalModule.releasePreviewFrame(previewUri);
+}
+
 export type RDTCameraReadyArgs = {
   supportsTorchMode: boolean;
   screenWidth: number;
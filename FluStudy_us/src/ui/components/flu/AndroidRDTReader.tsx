@@ -44,6 +44,7 @@ import {
   RDTCapturedArgs,
   RDTCameraReadyArgs,
   RDTInterpretingArgs,
+  pinPreviewFrame,
 } from "../../../native/rdtReader";
 import {
   RDTReaderResult,
@@ -559,20 +560,29 @@ class AndroidRDTReader extends React.Component<Props & WithNamespaces, State> {
     const rdtResult = rdtCapturedArgsToResult(args);
 
     const now = Date.now();
-    const upload =
-      this._sampleRate > 0 && now - this._lastPreviewSaved >= this._sampleRate;
+    // Preview frames that the reader did not sample have no previewUri
+    const { previewUri } = args;
+    let upload =
+      !!previewUri &&
+      this._sampleRate > 0 &&
+      now - this._lastPreviewSaved >= this._sampleRate;
+    if (upload && previewUri) {
+      // Keep newer frames from overwriting this one before it is uploaded; the
+      // uploader removes the file afterwards, which releases the pin
+      upload = await pinPreviewFrame(previewUri);
+    }
 
     rdtResult.photoUploaded = upload;
     rdtResult.previewSampleRate = this._sampleRate;
     rdtResult.uiMessage = this.state.instructionMsg;
 
-    if (upload) {
+    if (upload && previewUri) {
       const previewPhotoId = "preview_" + (await newUID()) + ".jpeg";
       rdtResult.previewPhotoId = previewPhotoId;
-      uploadFile(rdtResult.previewPhotoId, args.previewUri, true);
+      uploadFile(rdtResult.previewPhotoId, previewUri, true);
       this._lastPreviewSaved = now;
-    } else {
-      deleteFile(args.previewUri);
+    } else if (previewUri) {
+      deleteFile(previewUri);
     }
 
     this._lastRDTReaderResult = rdtResult;